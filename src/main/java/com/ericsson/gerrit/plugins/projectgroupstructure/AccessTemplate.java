@@ -0,0 +1,220 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.exceptions.InvalidNameException;
+import com.google.gerrit.server.project.ProjectConfig;
+import com.google.gerrit.server.project.RefPattern;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default access rights read from a template file.
+ *
+ * <p>The format of the file is the same as regular project.config, it is parsed once and invalid
+ * sections and permissions are dropped when it is loaded. Ref names and rules may contain the
+ * variables of {@link TemplateString}, which are split from the static parts when loading.
+ */
+class AccessTemplate {
+  private static final Logger log = LoggerFactory.getLogger(AccessTemplate.class);
+
+  private static final String EXCLUSIVE_GROUP_PERMISSIONS = "exclusiveGroupPermissions";
+
+  // Values used to validate the static parts of ref names containing variables
+  private static final ImmutableMap<String, String> PLACEHOLDERS =
+      ImmutableMap.of(
+          TemplateString.PROJECT, "project",
+          TemplateString.ROOT, "root",
+          TemplateString.CREATOR, "creator");
+
+  private final String name;
+  private final String version;
+  private final ImmutableList<Section> sections;
+  private final ImmutableList<String> errors;
+
+  static AccessTemplate load(String name, File file) {
+    FileBasedConfig config = new FileBasedConfig(file, FS.DETECTED);
+    try {
+      config.load();
+    } catch (IOException | ConfigInvalidException e) {
+      // Swallow the exception to allow the plugin to load, we still want the
+      // project structure to be enforced even if defaults access rights will
+      // not be set.
+      log.error(
+          "Failed to load default access rights config {}, no access right will be set on root projects: {}",
+          file.getAbsolutePath(),
+          e.getMessage(),
+          e);
+    }
+    return parse(name, config);
+  }
+
+  static AccessTemplate parse(String name, Config config) {
+    ImmutableList.Builder<Section> sections = ImmutableList.builder();
+    List<String> errors = new ArrayList<>();
+    StringBuilder buffer = new StringBuilder();
+    for (String refName : config.getSubsections(ProjectConfig.ACCESS)) {
+      TemplateString refNameTemplate = TemplateString.parse(refName);
+      String placeholderRefName =
+          refNameTemplate.render(PLACEHOLDERS, RefPattern.isRE(refName), buffer);
+      if (!AccessSection.isValidRefSectionName(placeholderRefName)) {
+        errors.add("Invalid ref name: " + refName);
+      } else if (isValidRegex(placeholderRefName, errors)) {
+        sections.add(parseSection(config, refName, refNameTemplate, errors));
+      }
+    }
+    String version = Hashing.murmur3_128().hashString(config.toText(), UTF_8).toString();
+    return new AccessTemplate(name, version, sections.build(), ImmutableList.copyOf(errors));
+  }
+
+  private static Section parseSection(
+      Config config, String refName, TemplateString refNameTemplate, List<String> errors) {
+    ImmutableList.Builder<String> exclusivePermissions = ImmutableList.builder();
+    for (String varName :
+        config.getStringList(ProjectConfig.ACCESS, refName, EXCLUSIVE_GROUP_PERMISSIONS)) {
+      Arrays.stream(varName.split("[, \t]{1,}"))
+          .filter(Permission::isPermission)
+          .forEach(exclusivePermissions::add);
+    }
+
+    ImmutableList.Builder<PermissionTemplate> permissions = ImmutableList.builder();
+    for (String value : config.getNames(ProjectConfig.ACCESS, refName)) {
+      if (EXCLUSIVE_GROUP_PERMISSIONS.equalsIgnoreCase(value)) {
+        continue;
+      }
+      if (Permission.isPermission(value)) {
+        ImmutableList.Builder<TemplateString> rules = ImmutableList.builder();
+        for (String rule : config.getStringList(ProjectConfig.ACCESS, refName, value)) {
+          rules.add(TemplateString.parse(rule));
+        }
+        permissions.add(new PermissionTemplate(value, rules.build()));
+      } else {
+        log.error("Invalid permission {}", value);
+        errors.add("Invalid permission " + value + " in " + refName);
+      }
+    }
+    return new Section(refNameTemplate, exclusivePermissions.build(), permissions.build());
+  }
+
+  private static boolean isValidRegex(String refPattern, List<String> errors) {
+    try {
+      RefPattern.validateRegExp(refPattern);
+    } catch (InvalidNameException e) {
+      log.error("Invalid ref name: {}", e.getMessage());
+      errors.add("Invalid ref name: " + e.getMessage());
+      return false;
+    }
+    return true;
+  }
+
+  private AccessTemplate(
+      String name,
+      String version,
+      ImmutableList<Section> sections,
+      ImmutableList<String> errors) {
+    this.name = name;
+    this.version = version;
+    this.sections = sections;
+    this.errors = errors;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /** Same template under another name, e.g. for another rule reading the same file. */
+  AccessTemplate withName(String otherName) {
+    return new AccessTemplate(otherName, version, sections, errors);
+  }
+
+  /** Hash of the content of the template, changes whenever the template does. */
+  String getVersion() {
+    return version;
+  }
+
+  /** Errors found when loading the template, the parts in error are ignored. */
+  ImmutableList<String> getErrors() {
+    return errors;
+  }
+
+  boolean isEmpty() {
+    return sections.isEmpty();
+  }
+
+  ImmutableList<Section> getSections() {
+    return sections;
+  }
+
+  static class Section {
+    private final TemplateString refName;
+    private final ImmutableList<String> exclusivePermissions;
+    private final ImmutableList<PermissionTemplate> permissions;
+
+    Section(
+        TemplateString refName,
+        ImmutableList<String> exclusivePermissions,
+        ImmutableList<PermissionTemplate> permissions) {
+      this.refName = refName;
+      this.exclusivePermissions = exclusivePermissions;
+      this.permissions = permissions;
+    }
+
+    TemplateString getRefName() {
+      return refName;
+    }
+
+    ImmutableList<String> getExclusivePermissions() {
+      return exclusivePermissions;
+    }
+
+    ImmutableList<PermissionTemplate> getPermissions() {
+      return permissions;
+    }
+  }
+
+  static class PermissionTemplate {
+    private final String name;
+    private final ImmutableList<TemplateString> rules;
+
+    PermissionTemplate(String name, ImmutableList<TemplateString> rules) {
+      this.name = name;
+      this.rules = rules;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    ImmutableList<TemplateString> getRules() {
+      return rules;
+    }
+  }
+}
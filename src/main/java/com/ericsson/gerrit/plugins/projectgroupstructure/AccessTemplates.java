@@ -0,0 +1,209 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.project.ProjectConfig;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default access rights templates and the rules selecting which one applies to a new root project.
+ *
+ * <p>Rules are read from <review_site>/data/project-group-structure/templates.config, e.g.:
+ *
+ * <pre>
+ * [template "unitA"]
+ *   file = unitA.config
+ *   rootPattern = unitA-.*
+ *   group = unitA-members
+ * </pre>
+ *
+ * <p>Rules are evaluated in order, the first one whose root name pattern and creator group both
+ * match selects its template. When no rule matches, the default template read from
+ * <review_site>/data/project-group-structure/project.config applies. All the templates are parsed
+ * once, in the background by {@link Initializer} or, if a template is needed before, on first use.
+ */
+@Singleton
+class AccessTemplates {
+  private static final Logger log = LoggerFactory.getLogger(AccessTemplates.class);
+
+  static final String TEMPLATES_CONFIG = "templates.config";
+  static final String DEFAULT_TEMPLATE = "default";
+
+  private static final String TEMPLATE = "template";
+  private static final String KEY_FILE = "file";
+  private static final String KEY_ROOT_PATTERN = "rootPattern";
+  private static final String KEY_GROUP = "group";
+
+  private final Supplier<Templates> templates;
+
+  @Inject
+  AccessTemplates(GroupResolutionCache groupResolutionCache, @PluginData Path dataDir) {
+    templates =
+        Suppliers.memoize(
+            () ->
+                new Templates(
+                    AccessTemplate.load(
+                        DEFAULT_TEMPLATE, dataDir.resolve(ProjectConfig.PROJECT_CONFIG).toFile()),
+                    loadRules(groupResolutionCache, dataDir)));
+  }
+
+  /** Parse the templates if they are not parsed yet. */
+  void load() {
+    templates.get();
+  }
+
+  /**
+   * Select the template to apply to a new root project.
+   *
+   * @param rootName name of the root project
+   * @param creatorGroups groups of the user creating the root project
+   * @return the template of the first matching rule, or the default template
+   */
+  AccessTemplate select(String rootName, GroupMembership creatorGroups) {
+    Templates loaded = templates.get();
+    for (Rule rule : loaded.rules) {
+      if (rule.matches(rootName, creatorGroups)) {
+        return rule.template;
+      }
+    }
+    return loaded.defaultTemplate;
+  }
+
+  /**
+   * Get a template by name.
+   *
+   * @param name name of the template, as returned by {@link AccessTemplate#getName()}
+   * @return the template, or empty if there is no longer such a template
+   */
+  Optional<AccessTemplate> get(String name) {
+    Templates loaded = templates.get();
+    if (loaded.defaultTemplate.getName().equals(name)) {
+      return Optional.of(loaded.defaultTemplate);
+    }
+    return loaded.rules.stream()
+        .map(r -> r.template)
+        .filter(t -> t.getName().equals(name))
+        .findFirst();
+  }
+
+  private static ImmutableList<Rule> loadRules(
+      GroupResolutionCache groupResolutionCache, Path dataDir) {
+    FileBasedConfig config =
+        new FileBasedConfig(dataDir.resolve(TEMPLATES_CONFIG).toFile(), FS.DETECTED);
+    try {
+      config.load();
+    } catch (IOException | ConfigInvalidException e) {
+      log.error(
+          "Failed to load templates config {}, only the default template will be used: {}",
+          config.getFile().getAbsolutePath(),
+          e.getMessage(),
+          e);
+      return ImmutableList.of();
+    }
+
+    Map<String, AccessTemplate> templatesByFile = new HashMap<>();
+    ImmutableList.Builder<Rule> rules = ImmutableList.builder();
+    for (String name : config.getSubsections(TEMPLATE)) {
+      if (DEFAULT_TEMPLATE.equals(name)) {
+        // would be taken for the default template when retried
+        log.error("Template name {} is reserved for the default template, ignoring it", name);
+        continue;
+      }
+      String file = config.getString(TEMPLATE, name, KEY_FILE);
+      if (Strings.isNullOrEmpty(file)) {
+        log.error("Missing {} for template {}, ignoring it", KEY_FILE, name);
+        continue;
+      }
+
+      Pattern rootPattern = null;
+      String regex = config.getString(TEMPLATE, name, KEY_ROOT_PATTERN);
+      if (!Strings.isNullOrEmpty(regex)) {
+        try {
+          rootPattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+          log.error("Invalid {} for template {}, ignoring it: {}", KEY_ROOT_PATTERN, name, regex);
+          continue;
+        }
+      }
+
+      AccountGroup.UUID group = null;
+      String groupName = config.getString(TEMPLATE, name, KEY_GROUP);
+      if (!Strings.isNullOrEmpty(groupName)) {
+        Optional<GroupReference> groupReference = groupResolutionCache.get(groupName);
+        if (!groupReference.isPresent()) {
+          log.error("Group {} of template {} not found, ignoring it", groupName, name);
+          continue;
+        }
+        group = groupReference.get().getUUID();
+      }
+
+      // a file shared by several rules is parsed once, each rule naming its template
+      AccessTemplate template =
+          templatesByFile
+              .computeIfAbsent(file, f -> AccessTemplate.load(name, dataDir.resolve(f).toFile()))
+              .withName(name);
+      rules.add(new Rule(rootPattern, group, template));
+    }
+    return rules.build();
+  }
+
+  private static class Templates {
+    final AccessTemplate defaultTemplate;
+    final ImmutableList<Rule> rules;
+
+    Templates(AccessTemplate defaultTemplate, ImmutableList<Rule> rules) {
+      this.defaultTemplate = defaultTemplate;
+      this.rules = rules;
+    }
+  }
+
+  private static class Rule {
+    final Pattern rootPattern;
+    final AccountGroup.UUID group;
+    final AccessTemplate template;
+
+    Rule(Pattern rootPattern, AccountGroup.UUID group, AccessTemplate template) {
+      this.rootPattern = rootPattern;
+      this.group = group;
+      this.template = template;
+    }
+
+    boolean matches(String rootName, GroupMembership creatorGroups) {
+      return (rootPattern == null || rootPattern.matcher(rootName).matches())
+          && (group == null || creatorGroups.contains(group));
+    }
+  }
+}
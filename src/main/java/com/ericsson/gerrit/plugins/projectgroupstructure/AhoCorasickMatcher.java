@@ -0,0 +1,113 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+
+/**
+ * Immutable Aho-Corasick automaton finding any of a set of patterns in a text in time linear in the
+ * length of the text, whatever the number of patterns.
+ */
+class AhoCorasickMatcher {
+  private static final int ROOT = 0;
+  private static final int NO_MATCH = -1;
+
+  private final List<String> patterns;
+  private final List<Map<Character, Integer>> transitions;
+  private final int[] failure;
+  // index of the longest pattern ending at each state, following failure
+  // links, or NO_MATCH
+  private final int[] match;
+
+  AhoCorasickMatcher(List<String> patterns) {
+    this.patterns = new ArrayList<>(patterns);
+    transitions = new ArrayList<>();
+    transitions.add(new HashMap<>());
+    List<Integer> ends = new ArrayList<>();
+    ends.add(NO_MATCH);
+    for (int i = 0; i < this.patterns.size(); i++) {
+      int state = ROOT;
+      for (char c : this.patterns.get(i).toCharArray()) {
+        Integer next = transitions.get(state).get(c);
+        if (next == null) {
+          next = transitions.size();
+          transitions.add(new HashMap<>());
+          ends.add(NO_MATCH);
+          transitions.get(state).put(c, next);
+        }
+        state = next;
+      }
+      if (ends.get(state) == NO_MATCH) {
+        ends.set(state, i);
+      }
+    }
+
+    failure = new int[transitions.size()];
+    match = new int[transitions.size()];
+    Arrays.fill(match, NO_MATCH);
+    Queue<Integer> queue = new ArrayDeque<>();
+    match[ROOT] = ends.get(ROOT);
+    for (int child : transitions.get(ROOT).values()) {
+      failure[child] = ROOT;
+      match[child] = ends.get(child);
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      for (Map.Entry<Character, Integer> e : transitions.get(state).entrySet()) {
+        int child = e.getValue();
+        failure[child] = next(failure[state], e.getKey());
+        match[child] = ends.get(child) != NO_MATCH ? ends.get(child) : match[failure[child]];
+        queue.add(child);
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    return patterns.isEmpty();
+  }
+
+  /** Return the first pattern found in {@code text}, if any. */
+  Optional<String> findFirst(CharSequence text) {
+    int state = ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      state = next(state, text.charAt(i));
+      if (match[state] != NO_MATCH) {
+        return Optional.of(patterns.get(match[state]));
+      }
+    }
+    return Optional.empty();
+  }
+
+  private int next(int state, char c) {
+    while (true) {
+      Integer next = transitions.get(state).get(c);
+      if (next != null) {
+        return next;
+      }
+      if (state == ROOT) {
+        return ROOT;
+      }
+      state = failure[state];
+    }
+  }
+}
@@ -0,0 +1,222 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit log of the decisions made by this plugin, one JSON object per line.
+ *
+ * <p>Recording a decision only enqueues it in a lock-free ring buffer; a background task drains
+ * the buffer in batches, appends them to <review_site>/logs/project-group-structure_audit.log and
+ * rotates the file when it gets too big. Entries are dropped, and the number of dropped entries
+ * logged, if the buffer is full.
+ */
+@Singleton
+class AuditLog implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(AuditLog.class);
+
+  static final String AUDIT_LOG_FILE = "project-group-structure_audit.log";
+
+  static final String CREATE = "create";
+  static final String REPARENT = "reparent";
+  static final String DEFAULT_ACCESS_RIGHTS = "default_access_rights";
+
+  static final String ACCEPT = "accept";
+  static final String REJECT = "reject";
+  static final String ADMIN_BYPASS = "admin_bypass";
+  static final String GRANT_OWNERSHIP = "grant_ownership";
+  static final String APPLY_TEMPLATE = "apply_template";
+
+  private static final int BATCH_SIZE = 512;
+  private static final long FLUSH_INTERVAL_MS = 200;
+
+  private final Configuration config;
+  private final WorkQueue workQueue;
+  private final Path file;
+  private final Gson gson = OutputFormat.JSON_COMPACT.newGson();
+  private final RingBuffer<Entry> buffer;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> flushTask;
+  private Writer writer;
+  private long fileSize;
+
+  @Inject
+  AuditLog(Configuration config, WorkQueue workQueue, SitePaths sitePaths) {
+    this.config = config;
+    this.workQueue = workQueue;
+    this.file = sitePaths.logs_dir.resolve(AUDIT_LOG_FILE);
+    this.buffer =
+        config.isAuditLogEnabled() ? new RingBuffer<>(config.getAuditLogBufferSize()) : null;
+  }
+
+  /**
+   * Record a decision.
+   *
+   * @param operation what was being done, e.g. {@link #CREATE}
+   * @param decision the decision, e.g. {@link #REJECT}
+   * @param user loggable name of the user
+   * @param project name of the project
+   * @param parent name of the parent project, or null
+   * @param rule rule that led to the decision, or null
+   * @param startNanos {@link System#nanoTime()} when the operation started
+   */
+  void record(
+      String operation,
+      String decision,
+      String user,
+      String project,
+      String parent,
+      String rule,
+      long startNanos) {
+    if (buffer == null) {
+      return;
+    }
+    Entry entry = new Entry();
+    entry.time = System.currentTimeMillis();
+    entry.operation = operation;
+    entry.decision = decision;
+    entry.user = user;
+    entry.project = project;
+    entry.parent = parent;
+    entry.rule = rule;
+    entry.durationUs = (System.nanoTime() - startNanos) / 1000;
+    if (!buffer.offer(entry)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      open();
+    } catch (IOException e) {
+      log.error("Failed to open audit log {}: {}", file, e.getMessage(), e);
+      return;
+    }
+    executor = workQueue.createQueue(1, "ProjectGroupStructure-AuditLog");
+    flushTask =
+        executor.scheduleWithFixedDelay(
+            this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (executor == null) {
+      return;
+    }
+    flushTask.cancel(false);
+    executor.shutdown();
+    flush();
+    try {
+      writer.close();
+    } catch (IOException e) {
+      log.error("Failed to close audit log {}: {}", file, e.getMessage(), e);
+    }
+    writer = null;
+    executor = null;
+  }
+
+  private synchronized void flush() {
+    if (writer == null) {
+      return;
+    }
+    List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+    try {
+      while (buffer.drainTo(batch, BATCH_SIZE) > 0) {
+        for (Entry entry : batch) {
+          entry.timestamp = Instant.ofEpochMilli(entry.time).toString();
+          String line = gson.toJson(entry) + "\n";
+          writer.write(line);
+          fileSize += line.getBytes(UTF_8).length;
+        }
+        batch.clear();
+        writer.flush();
+        if (fileSize >= config.get().getAuditLogMaxFileSize()) {
+          rotate();
+        }
+      }
+    } catch (IOException e) {
+      log.error("Failed to write audit log {}: {}", file, e.getMessage(), e);
+    }
+    long droppedEntries = dropped.getAndSet(0);
+    if (droppedEntries > 0) {
+      log.warn("Audit log buffer full, {} entries dropped", droppedEntries);
+    }
+  }
+
+  private void open() throws IOException {
+    writer =
+        Files.newBufferedWriter(
+            file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    fileSize = Files.size(file);
+  }
+
+  private void rotate() throws IOException {
+    writer.close();
+    for (int i = config.get().getAuditLogMaxFiles() - 1; i > 0; i--) {
+      Path rotated = rotated(i);
+      if (Files.exists(rotated)) {
+        Files.move(rotated, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    open();
+  }
+
+  private Path rotated(int index) {
+    return file.resolveSibling(file.getFileName() + "." + index);
+  }
+
+  static class Entry {
+    transient long time;
+    String timestamp;
+    String operation;
+    String decision;
+    String user;
+    String project;
+    String parent;
+    String rule;
+    long durationUs;
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntSupplier;
+
+/** Pool of a bounded number of threads, created when the plugin starts. */
+abstract class BoundedQueue implements LifecycleListener {
+  private final WorkQueue workQueue;
+  private final String name;
+  private final IntSupplier threads;
+  private volatile ExecutorService executor;
+
+  /**
+   * @param name name of the queue, as listed by show-queue
+   * @param threads number of threads, read when the plugin starts
+   */
+  BoundedQueue(WorkQueue workQueue, String name, IntSupplier threads) {
+    this.workQueue = workQueue;
+    this.name = name;
+    this.threads = threads;
+  }
+
+  ExecutorService get() {
+    return executor;
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(threads.getAsInt(), name);
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invalidates the caches of this plugin on this node and on the other nodes of the cluster.
+ *
+ * <p>Caches register a handler per cache name; the meaning of the key is defined by each cache.
+ * Invalidations are sent to the other nodes through the {@link InvalidationBroadcaster} selected by
+ * the {@code cacheInvalidation} setting: {@code local}, the default, for a single node or {@code
+ * file} for nodes sharing a directory.
+ */
+@Singleton
+class CacheInvalidator implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(CacheInvalidator.class);
+
+  static final String LOCAL = "local";
+  static final String FILE = "file";
+
+  /** Drops what is derived from policies, the key is the project whose configuration changed. */
+  static final String POLICY = "policy";
+
+  /** Re-reads whether a project exists, the key is the name of the project. */
+  static final String PROJECT_NAMES = "project_names";
+
+  private final ConcurrentMap<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+  private final Configuration config;
+  private final WorkQueue workQueue;
+  private final SitePaths sitePaths;
+
+  private volatile InvalidationBroadcaster broadcaster = new LocalInvalidationBroadcaster();
+  private ScheduledExecutorService executor;
+
+  @Inject
+  CacheInvalidator(Configuration config, WorkQueue workQueue, SitePaths sitePaths) {
+    this.config = config;
+    this.workQueue = workQueue;
+    this.sitePaths = sitePaths;
+  }
+
+  /** Register a handler called with the key of each invalidation of {@code cache}. */
+  void register(String cache, Consumer<String> handler) {
+    handlers.computeIfAbsent(cache, c -> new CopyOnWriteArrayList<>()).add(handler);
+  }
+
+  /** Invalidate {@code key} of {@code cache} on this node and on the other nodes. */
+  void invalidate(String cache, String key) {
+    deliver(cache, key);
+    broadcast(cache, key);
+  }
+
+  /**
+   * Invalidate {@code key} of {@code cache} on the other nodes only, for caches already updated on
+   * this node.
+   */
+  void broadcast(String cache, String key) {
+    broadcaster.publish(cache, key);
+  }
+
+  @Override
+  public synchronized void start() {
+    if (!FILE.equals(config.getCacheInvalidation())) {
+      return;
+    }
+    Path directory = sitePaths.resolve(config.getCacheInvalidationDirectory());
+    if (directory == null) {
+      log.error(
+          "cacheInvalidationDirectory is not set, caches of other nodes will not be invalidated");
+      return;
+    }
+    executor = workQueue.createQueue(1, "ProjectGroupStructure-CacheInvalidation");
+    InvalidationBroadcaster fileBroadcaster =
+        new FileInvalidationBroadcaster(
+            directory, executor, config.getCacheInvalidationPollInterval());
+    try {
+      fileBroadcaster.start(this::deliver);
+      broadcaster = fileBroadcaster;
+      log.info("Exchanging cache invalidations through {}", directory);
+    } catch (IOException e) {
+      log.error(
+          "Failed to use {} for cache invalidations, caches of other nodes will not be invalidated:"
+              + " {}",
+          directory,
+          e.getMessage(),
+          e);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    broadcaster.stop();
+    broadcaster = new LocalInvalidationBroadcaster();
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  private void deliver(String cache, String key) {
+    List<Consumer<String>> cacheHandlers = handlers.get(cache);
+    if (cacheHandlers == null) {
+      log.debug("No handler for invalidation of {} {}", cache, key);
+      return;
+    }
+    for (Consumer<String> handler : cacheHandlers) {
+      handler.accept(key);
+    }
+  }
+}
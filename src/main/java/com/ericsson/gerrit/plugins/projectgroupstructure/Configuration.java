@@ -14,44 +14,327 @@
 
 package com.ericsson.gerrit.plugins.projectgroupstructure;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
 import com.google.gerrit.extensions.annotations.PluginCanonicalWebUrl;
 import com.google.gerrit.extensions.annotations.PluginName;
-import com.google.gerrit.server.config.PluginConfig;
-import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.ConfigKey;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.ConfigUpdateEntry;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.UpdateResult;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Global settings of the plugin, read from the plugin section of gerrit.config.
+ *
+ * <p>The settings re-read when gerrit.config is reloaded are held in an immutable {@link Snapshot}
+ * which is replaced as a whole. Callers should read the snapshot once per operation to get a
+ * consistent view of the settings. A reloaded configuration with invalid settings is rejected and
+ * the previous snapshot is kept. The other settings are only read when the plugin is loaded.
+ */
 @Singleton
-class Configuration {
+class Configuration implements GerritConfigListener {
   private static final Logger log = LoggerFactory.getLogger(Configuration.class);
 
+  private static final String PLUGIN = "plugin";
+
   private static final String NAME_REGEX = "nameRegex";
   private static final String DEFAULT_NAME_REGEX_VALUE = ".+";
   private static final String DEFAULT_NAME_REGEX_MESSAGE = "The value of the regex is invalid.";
 
+  private static final String AUDIT_LOG = "auditLog";
+  private static final String AUDIT_LOG_MAX_FILE_SIZE = "auditLogMaxFileSize";
+  private static final long DEFAULT_AUDIT_LOG_MAX_FILE_SIZE = 100 * 1024 * 1024;
+  private static final String AUDIT_LOG_MAX_FILES = "auditLogMaxFiles";
+  private static final int DEFAULT_AUDIT_LOG_MAX_FILES = 10;
+  private static final String AUDIT_LOG_BUFFER_SIZE = "auditLogBufferSize";
+  private static final int DEFAULT_AUDIT_LOG_BUFFER_SIZE = 8192;
+
+  private static final String CACHE_INVALIDATION = "cacheInvalidation";
+  private static final String CACHE_INVALIDATION_DIRECTORY = "cacheInvalidationDirectory";
+  private static final String CACHE_INVALIDATION_POLL_INTERVAL = "cacheInvalidationPollInterval";
+  private static final long DEFAULT_CACHE_INVALIDATION_POLL_INTERVAL_MS = 1000;
+
+  private static final String BULK_CREATION_THREADS = "bulkCreationThreads";
+  private static final int DEFAULT_BULK_CREATION_THREADS = 4;
+
+  private static final String POLICY_UPDATE_THREADS = "policyUpdateThreads";
+  private static final int DEFAULT_POLICY_UPDATE_THREADS = 4;
+
+  private static final String WARM_UP = "warmUp";
+  private static final String WARM_UP_ROOTS = "warmUpRoots";
+  private static final String WARM_UP_THREADS = "warmUpThreads";
+  private static final int DEFAULT_WARM_UP_THREADS = 2;
+  private static final String WARM_UP_RATE = "warmUpRate";
+  private static final int DEFAULT_WARM_UP_RATE = 20;
+
   static final String SEE_DOCUMENTATION_MSG = "\n\nSee documentation for more info: %s";
   static final String DOCUMENTATION_PATH = "Documentation/index.html";
 
-  private String regexNameFilter;
+  private final String pluginName;
+  private final String documentationUrl;
+  private final boolean auditLogEnabled;
+  private final int auditLogBufferSize;
+  private final String cacheInvalidation;
+  private final String cacheInvalidationDirectory;
+  private final long cacheInvalidationPollInterval;
+  private final int bulkCreationThreads;
+  private final int policyUpdateThreads;
+  private final boolean warmUpEnabled;
+  private final ImmutableList<String> warmUpRoots;
+  private final int warmUpThreads;
+  private final int warmUpRate;
+
+  private volatile Snapshot current;
 
   @Inject
   Configuration(
-      PluginConfigFactory pluginConfigFactory,
+      @GerritServerConfig Config gerritConfig,
       @PluginName String pluginName,
       @PluginCanonicalWebUrl String url) {
-    PluginConfig config = pluginConfigFactory.getFromGerritConfig(pluginName);
-    regexNameFilter = config.getString(NAME_REGEX, DEFAULT_NAME_REGEX_VALUE);
-    if (!"/".matches(regexNameFilter) || " ".matches(regexNameFilter)) {
-      log.warn(
-          String.format(
-              DEFAULT_NAME_REGEX_MESSAGE + SEE_DOCUMENTATION_MSG, url + DOCUMENTATION_PATH));
-      regexNameFilter = DEFAULT_NAME_REGEX_VALUE;
+    this.pluginName = pluginName;
+    this.documentationUrl = url + DOCUMENTATION_PATH;
+    List<String> errors = new ArrayList<>();
+    current = parse(gerritConfig, 1, errors);
+    auditLogEnabled = read(() -> getBoolean(gerritConfig, AUDIT_LOG), false, errors);
+    auditLogBufferSize =
+        read(
+            () -> getInt(gerritConfig, AUDIT_LOG_BUFFER_SIZE, DEFAULT_AUDIT_LOG_BUFFER_SIZE),
+            DEFAULT_AUDIT_LOG_BUFFER_SIZE,
+            errors);
+    cacheInvalidation =
+        MoreObjects.firstNonNull(
+            gerritConfig.getString(PLUGIN, pluginName, CACHE_INVALIDATION), CacheInvalidator.LOCAL);
+    cacheInvalidationDirectory =
+        gerritConfig.getString(PLUGIN, pluginName, CACHE_INVALIDATION_DIRECTORY);
+    cacheInvalidationPollInterval =
+        read(
+            () ->
+                gerritConfig.getTimeUnit(
+                    PLUGIN,
+                    pluginName,
+                    CACHE_INVALIDATION_POLL_INTERVAL,
+                    DEFAULT_CACHE_INVALIDATION_POLL_INTERVAL_MS,
+                    MILLISECONDS),
+            DEFAULT_CACHE_INVALIDATION_POLL_INTERVAL_MS,
+            errors);
+    bulkCreationThreads =
+        Math.max(
+            1,
+            read(
+                () -> getInt(gerritConfig, BULK_CREATION_THREADS, DEFAULT_BULK_CREATION_THREADS),
+                DEFAULT_BULK_CREATION_THREADS,
+                errors));
+    policyUpdateThreads =
+        Math.max(
+            1,
+            read(
+                () -> getInt(gerritConfig, POLICY_UPDATE_THREADS, DEFAULT_POLICY_UPDATE_THREADS),
+                DEFAULT_POLICY_UPDATE_THREADS,
+                errors));
+    warmUpEnabled = read(() -> getBoolean(gerritConfig, WARM_UP), false, errors);
+    warmUpRoots =
+        ImmutableList.copyOf(gerritConfig.getStringList(PLUGIN, pluginName, WARM_UP_ROOTS));
+    warmUpThreads =
+        Math.max(
+            1,
+            read(
+                () -> getInt(gerritConfig, WARM_UP_THREADS, DEFAULT_WARM_UP_THREADS),
+                DEFAULT_WARM_UP_THREADS,
+                errors));
+    warmUpRate =
+        Math.max(
+            0,
+            read(
+                () -> getInt(gerritConfig, WARM_UP_RATE, DEFAULT_WARM_UP_RATE),
+                DEFAULT_WARM_UP_RATE,
+                errors));
+    for (String error : errors) {
+      // invalid settings are replaced by their default rather than failing to load the plugin
+      log.warn(error + String.format(SEE_DOCUMENTATION_MSG, documentationUrl));
     }
   }
 
-  public String getRegexNameFilter() {
-    return regexNameFilter;
+  /** @return the current reloadable settings, never changing once returned */
+  Snapshot get() {
+    return current;
+  }
+
+  boolean isAuditLogEnabled() {
+    return auditLogEnabled;
+  }
+
+  int getAuditLogBufferSize() {
+    return auditLogBufferSize;
+  }
+
+  String getCacheInvalidation() {
+    return cacheInvalidation;
+  }
+
+  String getCacheInvalidationDirectory() {
+    return cacheInvalidationDirectory;
+  }
+
+  /** @return poll interval of the invalidation directory, in milliseconds */
+  long getCacheInvalidationPollInterval() {
+    return cacheInvalidationPollInterval;
+  }
+
+  int getBulkCreationThreads() {
+    return bulkCreationThreads;
+  }
+
+  int getPolicyUpdateThreads() {
+    return policyUpdateThreads;
+  }
+
+  boolean isWarmUpEnabled() {
+    return warmUpEnabled;
+  }
+
+  /** @return the root projects to warm up, empty for all the root projects */
+  ImmutableList<String> getWarmUpRoots() {
+    return warmUpRoots;
+  }
+
+  int getWarmUpThreads() {
+    return warmUpThreads;
+  }
+
+  /** @return root projects warmed up per second, 0 for unlimited */
+  int getWarmUpRate() {
+    return warmUpRate;
+  }
+
+  @Override
+  public Multimap<UpdateResult, ConfigUpdateEntry> configUpdated(ConfigUpdatedEvent event) {
+    ImmutableSet<ConfigKey> keys =
+        ImmutableSet.of(
+            ConfigKey.create(PLUGIN, pluginName, NAME_REGEX),
+            ConfigKey.create(PLUGIN, pluginName, AUDIT_LOG_MAX_FILE_SIZE),
+            ConfigKey.create(PLUGIN, pluginName, AUDIT_LOG_MAX_FILES));
+    if (!event.isEntriesUpdated(keys)) {
+      return ConfigUpdatedEvent.NO_UPDATES;
+    }
+    synchronized (this) {
+      List<String> errors = new ArrayList<>();
+      Snapshot reloaded = parse(event.getNewConfig(), current.getVersion() + 1, errors);
+      if (!errors.isEmpty()) {
+        log.error(
+            "Invalid {} settings in gerrit.config, keeping version {}: {}",
+            pluginName,
+            current.getVersion(),
+            String.join("; ", errors));
+        return event.reject(keys);
+      }
+      current = reloaded;
+    }
+    log.info("Reloaded {} settings, now at version {}", pluginName, current.getVersion());
+    return event.accept(keys);
+  }
+
+  /**
+   * Parse the reloadable settings, replacing the invalid ones by their default value.
+   *
+   * @param errors receives the description of each invalid setting
+   */
+  private Snapshot parse(Config gerritConfig, long version, List<String> errors) {
+    String regex = gerritConfig.getString(PLUGIN, pluginName, NAME_REGEX);
+    regex = regex != null ? regex : DEFAULT_NAME_REGEX_VALUE;
+    if (!isValidNameRegex(regex)) {
+      errors.add(DEFAULT_NAME_REGEX_MESSAGE);
+      regex = DEFAULT_NAME_REGEX_VALUE;
+    }
+    return new Snapshot(
+        version,
+        Pattern.compile(regex),
+        read(
+            () ->
+                gerritConfig.getLong(
+                    PLUGIN, pluginName, AUDIT_LOG_MAX_FILE_SIZE, DEFAULT_AUDIT_LOG_MAX_FILE_SIZE),
+            DEFAULT_AUDIT_LOG_MAX_FILE_SIZE,
+            errors),
+        Math.max(
+            1,
+            read(
+                () -> getInt(gerritConfig, AUDIT_LOG_MAX_FILES, DEFAULT_AUDIT_LOG_MAX_FILES),
+                DEFAULT_AUDIT_LOG_MAX_FILES,
+                errors)));
+  }
+
+  private boolean getBoolean(Config gerritConfig, String name) {
+    return gerritConfig.getBoolean(PLUGIN, pluginName, name, false);
+  }
+
+  private int getInt(Config gerritConfig, String name, int defaultValue) {
+    return gerritConfig.getInt(PLUGIN, pluginName, name, defaultValue);
+  }
+
+  /** Read a setting, or return its default value if it is not valid, e.g. not a number. */
+  private static <T> T read(Supplier<T> reader, T defaultValue, List<String> errors) {
+    try {
+      return reader.get();
+    } catch (IllegalArgumentException e) {
+      errors.add(e.getMessage());
+      return defaultValue;
+    }
+  }
+
+  private static boolean isValidNameRegex(String regex) {
+    try {
+      Pattern pattern = Pattern.compile(regex);
+      return pattern.matcher("/").matches() && !pattern.matcher(" ").matches();
+    } catch (PatternSyntaxException e) {
+      return false;
+    }
+  }
+
+  /** Immutable version of the settings re-read when gerrit.config is reloaded. */
+  static class Snapshot {
+    private final long version;
+    private final Pattern nameRegex;
+    private final long auditLogMaxFileSize;
+    private final int auditLogMaxFiles;
+
+    private Snapshot(
+        long version, Pattern nameRegex, long auditLogMaxFileSize, int auditLogMaxFiles) {
+      this.version = version;
+      this.nameRegex = nameRegex;
+      this.auditLogMaxFileSize = auditLogMaxFileSize;
+      this.auditLogMaxFiles = auditLogMaxFiles;
+    }
+
+    /** @return version of the settings, incremented each time they are reloaded */
+    long getVersion() {
+      return version;
+    }
+
+    Pattern getNameRegex() {
+      return nameRegex;
+    }
+
+    long getAuditLogMaxFileSize() {
+      return auditLogMaxFileSize;
+    }
+
+    int getAuditLogMaxFiles() {
+      return auditLogMaxFiles;
+    }
   }
 }
@@ -0,0 +1,85 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Short-lived cache of whether a user may create projects under a parent, or see a project, used to
+ * answer suggestions without evaluating permissions on every keystroke.
+ *
+ * <p>This cache is only used for suggestions, project creation always evaluates permissions. It is
+ * dropped with the policies since they hold the delegation groups.
+ */
+@Singleton
+class CreatePermissionCache {
+  private static final Logger log = LoggerFactory.getLogger(CreatePermissionCache.class);
+
+  private final ProjectCreationValidator projectCreationValidator;
+  private final PermissionBackend permissionBackend;
+  private final Cache<String, Boolean> cache =
+      CacheBuilder.newBuilder().maximumSize(100_000).expireAfterWrite(1, MINUTES).build();
+  private final Cache<String, Boolean> access =
+      CacheBuilder.newBuilder().maximumSize(100_000).expireAfterWrite(1, MINUTES).build();
+
+  @Inject
+  CreatePermissionCache(
+      ProjectCreationValidator projectCreationValidator,
+      PermissionBackend permissionBackend,
+      CacheInvalidator cacheInvalidator) {
+    this.projectCreationValidator = projectCreationValidator;
+    this.permissionBackend = permissionBackend;
+    cacheInvalidator.register(
+        CacheInvalidator.POLICY,
+        project -> {
+          cache.invalidateAll();
+          access.invalidateAll();
+        });
+  }
+
+  boolean canCreateUnder(Project.NameKey parent, CurrentUser user) {
+    String key = user.getAccountId().get() + "/" + parent.get();
+    try {
+      return cache.get(key, () -> projectCreationValidator.canCreateUnder(parent, user));
+    } catch (ExecutionException e) {
+      log.error("Failed to check permissions on {}: {}", parent.get(), e.getMessage(), e);
+      return false;
+    }
+  }
+
+  boolean canAccess(Project.NameKey project, CurrentUser user) {
+    String key = user.getAccountId().get() + "/" + project.get();
+    try {
+      return access.get(
+          key,
+          () -> permissionBackend.user(user).project(project).test(ProjectPermission.ACCESS));
+    } catch (ExecutionException e) {
+      log.error("Failed to check access to {}: {}", project.get(), e.getMessage(), e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,319 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.ProjectUtil;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gerrit.server.validators.ValidationException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Create a tree of projects, e.g. a root project and the projects of an organisation under it.
+ *
+ * <p>The tree is validated once, as a unit, by {@link ProjectCreationValidator#validateTree}, so
+ * ownership and policies are checked once per existing parent. Projects are then created parents
+ * first, in waves of projects at the same depth in the tree, the projects of a wave being created
+ * in parallel on the {@link BulkCreationQueue}. The projects under a project that failed to be
+ * created are skipped. At most one owner group is created, just before the first project it owns.
+ */
+@RequiresCapability(value = GlobalCapability.CREATE_PROJECT, scope = CapabilityScope.CORE)
+class CreateTree implements RestModifyView<ConfigResource, CreateTree.Input> {
+  private static final Logger log = LoggerFactory.getLogger(CreateTree.class);
+
+  static final String CREATED = "CREATED";
+  static final String FAILED = "FAILED";
+  static final String SKIPPED = "SKIPPED";
+
+  static class Input {
+    List<ProjectEntry> projects;
+  }
+
+  static class ProjectEntry {
+    String name;
+    /** Parent project, by default the project the name starts with or All-Projects. */
+    String parent;
+
+    Boolean permissionsOnly;
+    String description;
+    Boolean createEmptyCommit;
+  }
+
+  static class ResultInfo {
+    String status;
+    String error;
+
+    ResultInfo(String status, String error) {
+      this.status = status;
+      this.error = error;
+    }
+  }
+
+  private final ProjectCreationValidator projectCreationValidator;
+  private final BulkCreationQueue queue;
+  private final GerritApi gApi;
+  private final ProjectCache projectCache;
+  private final AllProjectsName allProjectsName;
+  private final ThreadLocalRequestContext threadLocalRequestContext;
+  private final Provider<CurrentUser> self;
+
+  @Inject
+  CreateTree(
+      ProjectCreationValidator projectCreationValidator,
+      BulkCreationQueue queue,
+      GerritApi gApi,
+      ProjectCache projectCache,
+      AllProjectsName allProjectsName,
+      ThreadLocalRequestContext threadLocalRequestContext,
+      Provider<CurrentUser> self) {
+    this.projectCreationValidator = projectCreationValidator;
+    this.queue = queue;
+    this.gApi = gApi;
+    this.projectCache = projectCache;
+    this.allProjectsName = allProjectsName;
+    this.threadLocalRequestContext = threadLocalRequestContext;
+    this.self = self;
+  }
+
+  @Override
+  public Response<Map<String, ResultInfo>> apply(ConfigResource resource, Input input)
+      throws RestApiException {
+    if (input == null || input.projects == null || input.projects.isEmpty()) {
+      throw new BadRequestException("projects must be set");
+    }
+    Map<String, ProjectEntry> entries = new TreeMap<>();
+    for (ProjectEntry entry : input.projects) {
+      if (entry == null || Strings.isNullOrEmpty(entry.name)) {
+        throw new BadRequestException("project name must be set");
+      }
+      String name = ProjectUtil.sanitizeProjectName(entry.name);
+      if (entries.put(name, entry) != null) {
+        throw new BadRequestException(String.format("Project %s is set twice", name));
+      }
+      if (projectCache.get(Project.nameKey(name)).isPresent()) {
+        throw new ResourceConflictException(String.format("Project %s already exists", name));
+      }
+    }
+
+    Map<String, Project.NameKey> parents = new HashMap<>();
+    Set<String> permissionsOnly = new HashSet<>();
+    for (Map.Entry<String, ProjectEntry> entry : entries.entrySet()) {
+      String name = entry.getKey();
+      String parent = entry.getValue().parent;
+      if (Strings.isNullOrEmpty(parent)) {
+        int slash = name.lastIndexOf('/');
+        parent = slash > 0 ? name.substring(0, slash) : allProjectsName.get();
+      }
+      if (!entries.containsKey(parent)
+          && !allProjectsName.get().equals(parent)
+          && !projectCache.get(Project.nameKey(parent)).isPresent()) {
+        throw new UnprocessableEntityException(
+            String.format("Parent project %s of %s not found", parent, name));
+      }
+      parents.put(name, Project.nameKey(parent));
+      if (Boolean.TRUE.equals(entry.getValue().permissionsOnly)) {
+        permissionsOnly.add(name);
+      }
+    }
+
+    List<List<String>> waves = waves(parents);
+    Map<String, Project.NameKey> ordered = new LinkedHashMap<>();
+    waves.forEach(wave -> wave.forEach(name -> ordered.put(name, parents.get(name))));
+
+    CurrentUser user = self.get();
+    List<String> owned;
+    try {
+      owned = projectCreationValidator.validateTree(ordered, permissionsOnly, user);
+    } catch (ValidationException e) {
+      throw new ResourceConflictException(e.getMessage(), e);
+    }
+
+    Map<String, ResultInfo> results = new LinkedHashMap<>();
+    try {
+      create(waves, entries, parents, new OwnerGroup(owned, parents, user), results);
+    } finally {
+      projectCreationValidator.releaseTree(ordered.keySet());
+    }
+    return Response.ok(results);
+  }
+
+  private void create(
+      List<List<String>> waves,
+      Map<String, ProjectEntry> entries,
+      Map<String, Project.NameKey> parents,
+      OwnerGroup ownerGroup,
+      Map<String, ResultInfo> results) {
+    RequestContext context = threadLocalRequestContext.getContext();
+    Set<String> notCreated = new HashSet<>();
+    for (List<String> wave : waves) {
+      Map<String, Future<?>> futures = new LinkedHashMap<>();
+      for (String name : wave) {
+        Project.NameKey parent = parents.get(name);
+        if (notCreated.contains(parent.get())) {
+          notCreated.add(name);
+          results.put(
+              name, new ResultInfo(SKIPPED, String.format("%s was not created", parent.get())));
+          continue;
+        }
+        ProjectInput in = projectInput(name, entries.get(name), parent);
+        futures.put(name, queue.get().submit(() -> create(context, in, ownerGroup)));
+      }
+      for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+        String name = future.getKey();
+        try {
+          future.getValue().get();
+          results.put(name, new ResultInfo(CREATED, null));
+        } catch (ExecutionException e) {
+          log.warn("Failed to create {}: {}", name, e.getCause().getMessage());
+          notCreated.add(name);
+          results.put(name, new ResultInfo(FAILED, e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          notCreated.add(name);
+          results.put(name, new ResultInfo(FAILED, "interrupted"));
+        }
+      }
+    }
+    ownerGroup.checkOwnsCreatedProject(notCreated);
+  }
+
+  private Void create(RequestContext context, ProjectInput in, OwnerGroup ownerGroup)
+      throws RestApiException {
+    RequestContext old = threadLocalRequestContext.setContext(context);
+    try {
+      if (ownerGroup.owns(in.name)) {
+        in.owners = Collections.singletonList(ownerGroup.get().get());
+      }
+      projectCreationValidator.createValidated(in, () -> gApi.projects().create(in));
+      return null;
+    } finally {
+      threadLocalRequestContext.setContext(old);
+    }
+  }
+
+  private static ProjectInput projectInput(
+      String name, ProjectEntry entry, Project.NameKey parent) {
+    ProjectInput in = new ProjectInput();
+    in.name = name;
+    in.parent = parent.get();
+    in.permissionsOnly = Boolean.TRUE.equals(entry.permissionsOnly);
+    in.description = entry.description;
+    in.createEmptyCommit = Boolean.TRUE.equals(entry.createEmptyCommit);
+    return in;
+  }
+
+  /**
+   * Group owning the projects of the tree whose parent already exists, created by the first of
+   * them to be created, so that it is not created if the tree is not.
+   */
+  private class OwnerGroup {
+    private final ImmutableSet<String> owned;
+    private final Map<String, Project.NameKey> parents;
+    private final CurrentUser user;
+    private AccountGroup.UUID uuid;
+
+    OwnerGroup(List<String> owned, Map<String, Project.NameKey> parents, CurrentUser user) {
+      this.owned = ImmutableSet.copyOf(owned);
+      this.parents = parents;
+      this.user = user;
+    }
+
+    boolean owns(String name) {
+      return owned.contains(name);
+    }
+
+    /** Warn about the group if none of the projects it owns was created, as it can't be deleted. */
+    synchronized void checkOwnsCreatedProject(Set<String> notCreated) {
+      if (uuid != null && notCreated.containsAll(owned)) {
+        log.warn("Owner group {} was created but none of the projects it owns", uuid.get());
+      }
+    }
+
+    synchronized AccountGroup.UUID get() throws RestApiException {
+      if (uuid == null) {
+        try {
+          uuid = projectCreationValidator.createTreeOwnerGroup(owned.asList(), parents, user);
+        } catch (ValidationException e) {
+          throw new ResourceConflictException(e.getMessage(), e);
+        }
+      }
+      return uuid;
+    }
+  }
+
+  /** Group the projects by depth in the tree, the projects of a wave sorted by name. */
+  private static List<List<String>> waves(Map<String, Project.NameKey> parents)
+      throws BadRequestException {
+    Map<String, Integer> depths = new HashMap<>();
+    List<List<String>> waves = new ArrayList<>();
+    for (String name : new TreeMap<>(parents).keySet()) {
+      int depth = depth(name, parents, depths, 0);
+      while (waves.size() <= depth) {
+        waves.add(new ArrayList<>());
+      }
+      waves.get(depth).add(name);
+    }
+    return waves;
+  }
+
+  private static int depth(
+      String name, Map<String, Project.NameKey> parents, Map<String, Integer> depths, int hops)
+      throws BadRequestException {
+    Integer depth = depths.get(name);
+    if (depth != null) {
+      return depth;
+    }
+    if (hops > parents.size()) {
+      throw new BadRequestException(String.format("Parents of %s form a cycle", name));
+    }
+    String parent = parents.get(name).get();
+    depth = parents.containsKey(parent) ? depth(parent, parents, depths, hops + 1) + 1 : 0;
+    depths.put(name, depth);
+    return depth;
+  }
+}
@@ -21,174 +21,287 @@ import com.google.gerrit.entities.InternalGroup;
 import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.PermissionRule;
 import com.google.gerrit.entities.Project;
-import com.google.gerrit.exceptions.InvalidNameException;
-import com.google.gerrit.extensions.annotations.PluginData;
 import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.account.GroupCache;
 import com.google.gerrit.server.git.meta.MetaDataUpdate;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.gerrit.server.project.NoSuchProjectException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.RefPattern;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import java.io.IOException;
-import java.nio.file.Path;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Pattern;
-import org.eclipse.jgit.errors.ConfigInvalidException;
-import org.eclipse.jgit.storage.file.FileBasedConfig;
-import org.eclipse.jgit.util.FS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Set defaults access rights for root projects.
  *
- * <p>Default access rights are read from <review_site>/data/project-group-structure/project.config.
- * The format of that file is the same as regular project.config except that group, in addition to
- * be a group name, can be set to token ${owner} instead which will be replaced by the group owning
- * the project.
+ * <p>Default access rights are read from templates, see {@link AccessTemplates}. The format of
+ * templates is the same as regular project.config except that group, in addition to be a group
+ * name, can be set to token ${owner} instead which will be replaced by the group owning the
+ * project, or to token ${owners} which will be replaced by all the groups owning the project. Ref
+ * names and rules may also use the variables of {@link TemplateString}.
  */
 @Singleton
 public class DefaultAccessRights implements NewProjectCreatedListener {
   private static final Logger log = LoggerFactory.getLogger(DefaultAccessRights.class);
   private static final String OWNER_TOKEN = "${owner}";
+  private static final String OWNERS_TOKEN = "${owners}";
+  private static final String TRACE_COMMIT = "project-group-structure: commit access rights";
 
   private final GroupCache groupCache;
+  private final GroupResolutionCache groupResolutionCache;
   private final ProjectCache projectCache;
   private final MetaDataUpdate.User metaDataUpdateFactory;
+  private final MetaDataUpdate.Server serverMetaDataUpdateFactory;
   private final ProjectConfig.Factory projectConfigFactory;
-  private final FileBasedConfig defaultAccessRightsConfig;
+  private final AccessTemplates accessTemplates;
+  private final AuditLog auditLog;
+  private final RetryJournal retryJournal;
+  private final Provider<CurrentUser> self;
 
   @Inject
   public DefaultAccessRights(
       ProjectConfig.Factory projectConfigFactory,
       MetaDataUpdate.User metaDataUpdateFactory,
+      MetaDataUpdate.Server serverMetaDataUpdateFactory,
       ProjectCache projectCache,
       GroupCache groupCache,
-      @PluginData Path dataDir) {
+      GroupResolutionCache groupResolutionCache,
+      AccessTemplates accessTemplates,
+      AuditLog auditLog,
+      RetryJournal retryJournal,
+      Provider<CurrentUser> self) {
     this.groupCache = groupCache;
+    this.groupResolutionCache = groupResolutionCache;
     this.projectCache = projectCache;
     this.metaDataUpdateFactory = metaDataUpdateFactory;
+    this.serverMetaDataUpdateFactory = serverMetaDataUpdateFactory;
     this.projectConfigFactory = projectConfigFactory;
-    defaultAccessRightsConfig =
-        new FileBasedConfig(dataDir.resolve(ProjectConfig.PROJECT_CONFIG).toFile(), FS.DETECTED);
-    try {
-      defaultAccessRightsConfig.load();
-    } catch (IOException | ConfigInvalidException e) {
-      // Swallow the exception to allow the plugin to load, we still want the
-      // project structure to be enforced even if defaults access rights will
-      // not be set.
-      log.error(
-          "Failed to load default access rights config {}, no access right will be set on root projects: {}",
-          defaultAccessRightsConfig.getFile().getAbsolutePath(),
-          e.getMessage(),
-          e);
-    }
+    this.accessTemplates = accessTemplates;
+    this.auditLog = auditLog;
+    this.retryJournal = retryJournal;
+    this.self = self;
   }
 
   @Override
   public void onNewProjectCreated(NewProjectCreatedListener.Event event) {
+    long start = System.nanoTime();
     String projectName = event.getProjectName();
-    // only set default access rights for root projects, if configured.
-    if (projectName.contains("/") || defaultAccessRightsConfig.getSections().isEmpty()) {
+    // only set default access rights for root projects
+    if (projectName.contains("/")) {
       return;
     }
-
-    Optional<ProjectState> project = projectCache.get(Project.NameKey.parse(projectName));
-    if (!project.isPresent()) {
-      log.error("Could not retrieve projet {} from cache", projectName);
+    CurrentUser user = self.get();
+    AccessTemplate template = accessTemplates.select(projectName, user.getEffectiveGroups());
+    if (template.isEmpty()) {
       return;
     }
 
-    try (MetaDataUpdate md =
-        metaDataUpdateFactory.create(project.get().getProject().getNameKey())) {
-      ProjectConfig config = projectConfigFactory.read(md);
-      setAccessRights(config, project.get());
-      md.setMessage("Set default access rights\n");
-      config.commit(md);
+    String creator = user.getUserName().orElseGet(user::getLoggableName);
+    retryJournal.add(projectName, template.getName(), creator);
+    try (MetaDataUpdate md = metaDataUpdateFactory.create(Project.nameKey(projectName))) {
+      apply(md, template, creator, start);
+      retryJournal.remove(projectName);
     } catch (Exception e) {
-      log.error("Failed to set defauts access rights {}", e.getMessage(), e);
+      log.error(
+          "Failed to set default access rights of {}, will retry: {}",
+          projectName,
+          e.getMessage(),
+          e);
     }
   }
 
-  private void setAccessRights(ProjectConfig config, ProjectState project) {
-    for (String refName : defaultAccessRightsConfig.getSubsections(ProjectConfig.ACCESS)) {
-      if (AccessSection.isValidRefSectionName(refName) && isValidRegex(refName)) {
-        config.upsertAccessSection(
-            refName,
-            as -> {
-              getPermissions(refName, as);
-              setPermissions(refName, as, getOwnerGroupName(project));
-            });
-      }
+  /**
+   * Apply a template again, as the server, after a failed application recorded in the {@link
+   * RetryJournal}.
+   *
+   * @param projectName name of the root project
+   * @param templateName name of the template selected when the project was created
+   * @param creator user name of the user who created the project
+   */
+  void retry(String projectName, String templateName, String creator) throws Exception {
+    long start = System.nanoTime();
+    Optional<AccessTemplate> template = accessTemplates.get(templateName);
+    if (!template.isPresent()) {
+      log.error(
+          "Template {} no longer exists, default access rights of {} not set",
+          templateName,
+          projectName);
+      return;
+    }
+    try (MetaDataUpdate md = serverMetaDataUpdateFactory.create(Project.nameKey(projectName))) {
+      apply(md, template.get(), creator, start);
     }
   }
 
-  private void getPermissions(String refName, AccessSection.Builder as) {
-    for (String varName :
-        defaultAccessRightsConfig.getStringList(
-            ProjectConfig.ACCESS, refName, "exclusiveGroupPermissions")) {
-      Arrays.stream(varName.split("[, \t]{1,}"))
-          .filter(Permission::isPermission)
-          .forEach(n -> as.upsertPermission(n).setExclusiveGroup(true));
+  private void apply(MetaDataUpdate md, AccessTemplate template, String creator, long start)
+      throws Exception {
+    Project.NameKey projectName = md.getProjectName();
+    ProjectState project =
+        projectCache.get(projectName).orElseThrow(() -> new NoSuchProjectException(projectName));
+    ProjectConfig config = projectConfigFactory.read(md);
+    log.debug("Applying template {} to {}", template.getName(), projectName);
+    List<String> errors = new ArrayList<>();
+    boolean changed =
+        setAccessRights(
+            config,
+            template,
+            getOwnerGroups(project),
+            variables(projectName.get(), creator),
+            errors);
+    errors.forEach(e -> log.error("{} in template {}", e, template.getName()));
+    if (!changed) {
+      log.debug("Template {} already applied to {}", template.getName(), projectName);
+      return;
+    }
+    md.setMessage("Set default access rights\n");
+    try (TraceTimer timer =
+        TraceContext.newTimer(
+            TRACE_COMMIT, Metadata.builder().projectName(projectName.get()).build())) {
+      config.commit(md);
     }
+    auditLog.record(
+        AuditLog.DEFAULT_ACCESS_RIGHTS,
+        AuditLog.APPLY_TEMPLATE,
+        creator,
+        projectName.get(),
+        null,
+        template.getName(),
+        start);
   }
 
-  private void setPermissions(String refName, AccessSection.Builder as, String ownerGroupName) {
-    for (String value : defaultAccessRightsConfig.getNames(ProjectConfig.ACCESS, refName)) {
-      if (Permission.isPermission(value)) {
-        Permission.Builder perm = as.upsertPermission(value);
-        setPermissionRules(ownerGroupName, perm, refName, value);
-      } else {
-        log.error("Invalid permission {}", value);
-      }
+  static Map<String, String> variables(String projectName, String creator) {
+    Map<String, String> variables = new HashMap<>();
+    variables.put(TemplateString.PROJECT, projectName);
+    variables.put(TemplateString.ROOT, SubtreeCounters.getRoot(projectName));
+    variables.put(TemplateString.CREATOR, creator);
+    return variables;
+  }
+
+  /**
+   * Upsert the access sections of the template.
+   *
+   * @param config configuration to upsert the access sections into
+   * @param template template to render
+   * @param owners groups replacing ${owner} and ${owners}, ordered by name
+   * @param variables values of the variables of {@link TemplateString}
+   * @param errors receives the invalid rules and unknown groups, which are skipped
+   * @return whether any access section changed, so that replaying the creation of a project, e.g.
+   *     when an event is retried, does not commit an empty update of refs/meta/config
+   */
+  boolean setAccessRights(
+      ProjectConfig config,
+      AccessTemplate template,
+      List<GroupReference> owners,
+      Map<String, String> variables,
+      List<String> errors) {
+    StringBuilder buffer = new StringBuilder();
+    boolean changed = false;
+    for (AccessTemplate.Section section : template.getSections()) {
+      TemplateString refNameTemplate = section.getRefName();
+      String refName =
+          refNameTemplate.render(variables, RefPattern.isRE(refNameTemplate.toString()), buffer);
+      AccessSection before = config.getAccessSection(refName);
+      config.upsertAccessSection(
+          refName,
+          as -> {
+            section
+                .getExclusivePermissions()
+                .forEach(n -> as.upsertPermission(n).setExclusiveGroup(true));
+            setPermissions(section, refName, as, owners, variables, buffer, errors);
+          });
+      changed |= !Objects.equals(before, config.getAccessSection(refName));
     }
+    return changed;
   }
 
-  private String getOwnerGroupName(ProjectState project) {
-    Set<AccountGroup.UUID> owners = project.getAllOwners();
-    if (!owners.isEmpty()) {
-      Optional<InternalGroup> owner = groupCache.get(owners.iterator().next());
-      if (owner.isPresent()) {
-        return owner.get().getName();
-      }
+  private void setPermissions(
+      AccessTemplate.Section section,
+      String refName,
+      AccessSection.Builder as,
+      List<GroupReference> owners,
+      Map<String, String> variables,
+      StringBuilder buffer,
+      List<String> errors) {
+    for (AccessTemplate.PermissionTemplate permission : section.getPermissions()) {
+      Permission.Builder perm = as.upsertPermission(permission.getName());
+      setPermissionRules(owners, variables, buffer, perm, refName, permission, errors);
     }
-    return String.format("no owners for project %s", project.getProject().getName());
   }
 
-  private boolean isValidRegex(String refPattern) {
-    try {
-      RefPattern.validateRegExp(refPattern);
-    } catch (InvalidNameException e) {
-      log.error("Invalid ref name: {}", e.getMessage());
-      return false;
+  /**
+   * Resolve the groups owning the project with one cache lookup, ordered by name so that the
+   * expansion of ${owner} and ${owners} does not depend on the iteration order of the owners.
+   */
+  private List<GroupReference> getOwnerGroups(ProjectState project) {
+    Set<AccountGroup.UUID> ownerIds = project.getAllOwners();
+    if (ownerIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Map<AccountGroup.UUID, InternalGroup> groups = groupCache.get(ownerIds);
+    List<GroupReference> owners = new ArrayList<>(ownerIds.size());
+    for (AccountGroup.UUID ownerId : ownerIds) {
+      InternalGroup group = groups.get(ownerId);
+      if (group != null) {
+        owners.add(GroupReference.create(ownerId, group.getName()));
+      } else {
+        log.warn("Owner group {} of {} not found", ownerId.get(), project.getName());
+      }
     }
-    return true;
+    owners.sort(
+        Comparator.comparing(GroupReference::getName).thenComparing(g -> g.getUUID().get()));
+    return owners;
   }
 
   private void setPermissionRules(
-      String ownerGroupName, Permission.Builder perm, String refName, String value) {
-    for (String ruleString :
-        defaultAccessRightsConfig.getStringList(ProjectConfig.ACCESS, refName, value)) {
+      List<GroupReference> owners,
+      Map<String, String> variables,
+      StringBuilder buffer,
+      Permission.Builder perm,
+      String refName,
+      AccessTemplate.PermissionTemplate permission,
+      List<String> errors) {
+    String value = permission.getName();
+    for (TemplateString ruleTemplate : permission.getRules()) {
+      String ruleString = ruleTemplate.render(variables, false, buffer);
       PermissionRule.Builder rule;
       try {
-        rule =
-            PermissionRule.fromString(
-                    ruleString.replaceAll(Pattern.quote(OWNER_TOKEN), ownerGroupName),
-                    Permission.hasRange(value))
-                .toBuilder();
-
+        rule = PermissionRule.fromString(ruleString, Permission.hasRange(value)).toBuilder();
       } catch (IllegalArgumentException notRule) {
-        log.error(
-            "Invalid rule in {}{}.{}: {}",
-            ProjectConfig.ACCESS,
-            refName != null ? "." + refName : "",
-            value,
-            notRule.getMessage());
+        errors.add(
+            String.format(
+                "Invalid rule in %s.%s.%s: %s",
+                ProjectConfig.ACCESS, refName, value, notRule.getMessage()));
+        continue;
+      }
+
+      String groupName = rule.getGroup().getName();
+      if (OWNER_TOKEN.equals(groupName) || OWNERS_TOKEN.equals(groupName)) {
+        if (owners.isEmpty()) {
+          errors.add(String.format("No owner group to replace %s in %s", groupName, ruleString));
+          continue;
+        }
+        List<GroupReference> groups =
+            OWNER_TOKEN.equals(groupName) ? owners.subList(0, 1) : owners;
+        for (GroupReference owner : groups) {
+          perm.add(rule.setGroup(owner).build().toBuilder());
+        }
         continue;
       }
 
@@ -196,14 +309,13 @@ public class DefaultAccessRights implements NewProjectCreatedListener {
         // this means that group is not already in the groups file, so
         // we need to check if group exist if if it does, get its
         // uuid.
-        Optional<InternalGroup> group =
-            groupCache.get(AccountGroup.nameKey(rule.getGroup().getName()));
+        Optional<GroupReference> group = groupResolutionCache.get(groupName);
 
         if (!group.isPresent()) {
-          log.error("Group {} not found", rule.getGroup().getName());
+          errors.add(String.format("Group %s not found", groupName));
           continue;
         }
-        rule.setGroup(GroupReference.create(group.get().getGroupUUID(), rule.getGroup().getName()));
+        rule.setGroup(group.get());
       }
       perm.add(rule);
     }
@@ -0,0 +1,99 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.server.CurrentUser;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Membership of users in the groups project creation is delegated to.
+ *
+ * <p>Each delegate group is given a small integer ID the first time it is seen, so that the groups
+ * of a policy are a bit set. The membership of a user is cached on the {@link CurrentUser}, also as
+ * bit sets, and checking whether the user is in any delegate group is an intersection of bit sets.
+ * Only the groups the user has not been checked against yet are sent to {@link
+ * CurrentUser#getEffectiveGroups()}, in one call.
+ */
+@Singleton
+class DelegateGroups {
+  private static final CurrentUser.PropertyKey<Membership> MEMBERSHIP =
+      CurrentUser.PropertyKey.create();
+
+  // guarded by this
+  private final Map<AccountGroup.UUID, Integer> ids = new HashMap<>();
+  private final List<AccountGroup.UUID> uuids = new ArrayList<>();
+
+  /** Map groups to their IDs. */
+  synchronized BitSet intern(Iterable<GroupReference> groups) {
+    BitSet bits = new BitSet();
+    for (GroupReference group : groups) {
+      Integer id = ids.get(group.getUUID());
+      if (id == null) {
+        id = uuids.size();
+        uuids.add(group.getUUID());
+        ids.put(group.getUUID(), id);
+      }
+      bits.set(id);
+    }
+    return bits;
+  }
+
+  private synchronized List<AccountGroup.UUID> uuids(BitSet bits) {
+    List<AccountGroup.UUID> result = new ArrayList<>(bits.cardinality());
+    bits.stream().forEach(id -> result.add(uuids.get(id)));
+    return result;
+  }
+
+  /** Whether {@code user} is a member of any of {@code groups}, as returned by {@link #intern}. */
+  boolean isMemberOfAny(CurrentUser user, BitSet groups) {
+    if (groups.isEmpty()) {
+      return false;
+    }
+    Membership membership = user.get(MEMBERSHIP).orElse(null);
+    if (membership == null) {
+      membership = new Membership();
+      user.put(MEMBERSHIP, membership);
+    }
+    synchronized (membership) {
+      BitSet unknown = (BitSet) groups.clone();
+      unknown.andNot(membership.known);
+      if (!unknown.isEmpty()) {
+        List<AccountGroup.UUID> candidates = uuids(unknown);
+        Set<AccountGroup.UUID> memberOf = user.getEffectiveGroups().intersection(candidates);
+        int i = 0;
+        for (int id = unknown.nextSetBit(0); id >= 0; id = unknown.nextSetBit(id + 1)) {
+          if (memberOf.contains(candidates.get(i++))) {
+            membership.member.set(id);
+          }
+        }
+        membership.known.or(unknown);
+      }
+      return membership.member.intersects(groups);
+    }
+  }
+
+  private static class Membership {
+    final BitSet known = new BitSet();
+    final BitSet member = new BitSet();
+  }
+}
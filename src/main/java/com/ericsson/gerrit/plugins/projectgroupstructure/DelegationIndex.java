@@ -0,0 +1,139 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashSet;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorted in-memory index of the projects delegating project creation in their own configuration,
+ * loaded in the background by {@link Initializer} and then maintained from the policy
+ * invalidations sent when the configuration of a project changes, on this node or another one.
+ *
+ * <p>Projects whose configuration changed while the index is loaded are read again once it is
+ * loaded. Until then, {@link #isDelegating} reads the configuration of the project.
+ */
+@Singleton
+class DelegationIndex {
+  private static final Logger log = LoggerFactory.getLogger(DelegationIndex.class);
+
+  private final ProjectNameIndex projectNameIndex;
+  private final ProjectCache projectCache;
+  private final PluginConfigFactory cfg;
+  private final String pluginName;
+  private final ConcurrentSkipListSet<String> delegating = new ConcurrentSkipListSet<>();
+  // projects whose configuration changed while loading; guarded by this, null once loaded
+  private Set<String> changed = new HashSet<>();
+  private volatile boolean loaded;
+
+  @Inject
+  DelegationIndex(
+      ProjectNameIndex projectNameIndex,
+      ProjectCache projectCache,
+      PluginConfigFactory cfg,
+      @PluginName String pluginName,
+      CacheInvalidator cacheInvalidator) {
+    this.projectNameIndex = projectNameIndex;
+    this.projectCache = projectCache;
+    this.cfg = cfg;
+    this.pluginName = pluginName;
+    cacheInvalidator.register(CacheInvalidator.POLICY, this::onConfigChanged);
+  }
+
+  /**
+   * Read the configuration of all the projects, then again the ones changed meanwhile. Can be
+   * called again if it failed.
+   */
+  void load() {
+    if (loaded) {
+      return;
+    }
+    for (String name : projectNameIndex.withPrefix("")) {
+      update(name);
+    }
+    Set<String> changedWhileLoading;
+    synchronized (this) {
+      changedWhileLoading = new HashSet<>(changed);
+    }
+    changedWhileLoading.forEach(this::update);
+    synchronized (this) {
+      changed = null;
+    }
+    loaded = true;
+    log.debug("Loaded {} projects delegating project creation", delegating.size());
+  }
+
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /** Whether {@code name} delegates project creation in its own configuration. */
+  boolean isDelegating(String name) {
+    if (!loaded) {
+      return readDelegating(name);
+    }
+    return delegating.contains(name);
+  }
+
+  /** The delegating projects starting with {@code prefix}, in order. Only valid once loaded. */
+  NavigableSet<String> withPrefix(String prefix) {
+    return delegating.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+  }
+
+  private void onConfigChanged(String name) {
+    synchronized (this) {
+      if (changed != null) {
+        changed.add(name);
+      }
+    }
+    update(name);
+  }
+
+  private void update(String name) {
+    if (readDelegating(name)) {
+      delegating.add(name);
+    } else {
+      delegating.remove(name);
+    }
+  }
+
+  private boolean readDelegating(String name) {
+    Optional<ProjectState> state = projectCache.get(Project.nameKey(name));
+    if (!state.isPresent()) {
+      return false;
+    }
+    for (String value :
+        cfg.getFromProjectConfig(state.get(), pluginName)
+            .getStringList(ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO)) {
+      if (GroupReference.extractGroupName(value) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,212 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Export the project group structure: each root project followed by the projects under it, with
+ * their owner groups and the groups project creation is delegated to, as newline delimited JSON or
+ * GraphViz DOT.
+ *
+ * <p>Projects are read one at a time from the sorted name index and written as soon as they are
+ * read, so memory use does not depend on the number of exported projects.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+class ExportStructure implements RestReadView<ConfigResource> {
+  enum Format {
+    NDJSON,
+    DOT
+  }
+
+  private final ProjectNameIndex projectNameIndex;
+  private final ProjectCache projectCache;
+  private final GroupCache groupCache;
+  private final PluginConfigFactory cfg;
+  private final AllProjectsName allProjectsName;
+  private final String pluginName;
+  private final Gson gson = OutputFormat.JSON_COMPACT.newGson();
+
+  @Option(name = "--format", usage = "output format, NDJSON or DOT")
+  private Format format = Format.NDJSON;
+
+  @Option(
+      name = "--root",
+      aliases = {"-r"},
+      metaVar = "ROOT",
+      usage = "root project to export, can be repeated, all root projects if not set")
+  private List<String> roots = new ArrayList<>();
+
+  @Option(
+      name = "--depth",
+      aliases = {"-d"},
+      metaVar = "DEPTH",
+      usage = "maximum depth of the exported projects, 0 for root projects only")
+  private int depth = -1;
+
+  @Inject
+  ExportStructure(
+      ProjectNameIndex projectNameIndex,
+      ProjectCache projectCache,
+      GroupCache groupCache,
+      PluginConfigFactory cfg,
+      AllProjectsName allProjectsName,
+      @PluginName String pluginName) {
+    this.projectNameIndex = projectNameIndex;
+    this.projectCache = projectCache;
+    this.groupCache = groupCache;
+    this.cfg = cfg;
+    this.allProjectsName = allProjectsName;
+    this.pluginName = pluginName;
+  }
+
+  @Override
+  public Response<BinaryResult> apply(ConfigResource resource) throws ResourceNotFoundException {
+    for (String root : roots) {
+      if (root.indexOf('/') >= 0 || !projectNameIndex.contains(root)) {
+        throw new ResourceNotFoundException(String.format("Root project %s not found", root));
+      }
+    }
+    Iterable<String> rootNames =
+        roots.isEmpty() ? projectNameIndex.rootsWithPrefix("") : ImmutableSortedSet.copyOf(roots);
+
+    BinaryResult result =
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            Writer out = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+            export(out, rootNames);
+            out.flush();
+          }
+        };
+    return Response.ok(
+        result
+            .setContentType(format == Format.DOT ? "text/vnd.graphviz" : "application/x-ndjson")
+            .setCharacterEncoding(UTF_8));
+  }
+
+  private void export(Writer out, Iterable<String> rootNames) throws IOException {
+    if (format == Format.DOT) {
+      out.write("digraph \"" + pluginName + "\" {\n  rankdir=LR;\n  node [shape=box];\n");
+    }
+    for (String root : rootNames) {
+      exportProject(out, root);
+      if (depth == 0) {
+        continue;
+      }
+      for (String name : projectNameIndex.withPrefix(root + "/")) {
+        if (depth < 0 || SubtreeCounters.getDepth(name) <= depth) {
+          exportProject(out, name);
+        }
+      }
+    }
+    if (format == Format.DOT) {
+      out.write("}\n");
+    }
+  }
+
+  private void exportProject(Writer out, String name) throws IOException {
+    Optional<ProjectState> state = projectCache.get(Project.nameKey(name));
+    if (!state.isPresent()) {
+      // deleted since it was read from the index
+      return;
+    }
+    NodeInfo node = new NodeInfo();
+    node.name = name;
+    Project.NameKey parent = state.get().getProject().getParent();
+    node.parent = parent != null ? parent.get() : allProjectsName.get();
+    node.depth = SubtreeCounters.getDepth(name);
+    node.owners = new ArrayList<>();
+    for (AccountGroup.UUID owner : state.get().getOwners()) {
+      node.owners.add(groupCache.get(owner).map(InternalGroup::getName).orElse(owner.get()));
+    }
+    for (String value :
+        cfg.getFromProjectConfig(state.get(), pluginName)
+            .getStringList(ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO)) {
+      String groupName = GroupReference.extractGroupName(value);
+      if (groupName != null) {
+        if (node.delegateProjectCreationTo == null) {
+          node.delegateProjectCreationTo = new ArrayList<>();
+        }
+        node.delegateProjectCreationTo.add(groupName);
+      }
+    }
+
+    if (format == Format.DOT) {
+      writeDot(out, node);
+    } else {
+      out.write(gson.toJson(node));
+      out.write('\n');
+    }
+  }
+
+  private void writeDot(Writer out, NodeInfo node) throws IOException {
+    StringBuilder label = new StringBuilder(node.name);
+    if (!node.owners.isEmpty()) {
+      label.append("\nowners: ").append(String.join(", ", node.owners));
+    }
+    if (node.delegateProjectCreationTo != null) {
+      label.append("\ndelegated to: ").append(String.join(", ", node.delegateProjectCreationTo));
+    }
+    out.write("  " + quote(node.name) + " [label=" + quote(label.toString()) + "];\n");
+    if (!allProjectsName.get().equals(node.parent)) {
+      out.write("  " + quote(node.parent) + " -> " + quote(node.name) + ";\n");
+    }
+  }
+
+  private static String quote(String value) {
+    return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+  }
+
+  static class NodeInfo {
+    String name;
+    String parent;
+    int depth;
+    List<String> owners;
+    List<String> delegateProjectCreationTo;
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broadcaster exchanging invalidations through a directory shared by all the nodes, e.g. on NFS.
+ *
+ * <p>Each invalidation is written to its own file named after the time it was published and the
+ * node publishing it, first to a hidden temporary file then atomically renamed, so that readers
+ * never see partial content. Every node polls the directory and delivers the invalidations of the
+ * files it has not seen yet and that were published by another node. Files are deleted by the node
+ * that wrote them once they are older than 10 minutes, or by any node once they are older than
+ * twice that, in case the writer is gone.
+ */
+class FileInvalidationBroadcaster implements InvalidationBroadcaster {
+  private static final Logger log = LoggerFactory.getLogger(FileInvalidationBroadcaster.class);
+
+  private static final long RETENTION_MS = MINUTES.toMillis(10);
+
+  private final Path directory;
+  private final ScheduledExecutorService executor;
+  private final long pollIntervalMs;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final AtomicLong sequence = new AtomicLong();
+  // only accessed by the polling task
+  private final Set<String> seen = new HashSet<>();
+
+  private BiConsumer<String, String> receiver;
+  private ScheduledFuture<?> pollTask;
+
+  FileInvalidationBroadcaster(
+      Path directory, ScheduledExecutorService executor, long pollIntervalMs) {
+    this.directory = directory;
+    this.executor = executor;
+    this.pollIntervalMs = pollIntervalMs;
+  }
+
+  @Override
+  public synchronized void start(BiConsumer<String, String> receiver) throws IOException {
+    this.receiver = receiver;
+    Files.createDirectories(directory);
+    // invalidations published before this node started are already reflected in the data it loads
+    seen.addAll(list());
+    pollTask =
+        executor.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (pollTask != null) {
+      pollTask.cancel(false);
+      pollTask = null;
+    }
+  }
+
+  @Override
+  public void publish(String cache, String key) {
+    String name =
+        String.format(
+            "%013d-%s-%012d", System.currentTimeMillis(), nodeId, sequence.incrementAndGet());
+    Path tmp = directory.resolve("." + name);
+    try {
+      Files.write(tmp, (cache + "\n" + key + "\n").getBytes(UTF_8));
+      Files.move(tmp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.error("Failed to publish invalidation of {} {}: {}", cache, key, e.getMessage(), e);
+    }
+  }
+
+  private void poll() {
+    try {
+      List<String> names = list();
+      Collections.sort(names);
+      long now = System.currentTimeMillis();
+      for (String name : names) {
+        if (seen.add(name) && !isOwn(name)) {
+          deliver(name);
+        }
+        long age = now - publishedAt(name);
+        if ((isOwn(name) && age > RETENTION_MS) || age > 2 * RETENTION_MS) {
+          Files.deleteIfExists(directory.resolve(name));
+        }
+      }
+      seen.retainAll(new HashSet<>(names));
+    } catch (IOException | RuntimeException e) {
+      log.error("Failed to poll invalidations from {}: {}", directory, e.getMessage(), e);
+    }
+  }
+
+  private void deliver(String name) throws IOException {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(directory.resolve(name), UTF_8);
+    } catch (NoSuchFileException e) {
+      // deleted by its writer in the meantime
+      return;
+    }
+    if (lines.size() < 2) {
+      log.warn("Ignoring invalid invalidation file {}", name);
+      return;
+    }
+    receiver.accept(lines.get(0), lines.get(1));
+  }
+
+  private List<String> list() throws IOException {
+    List<String> names = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(".")) {
+          names.add(name);
+        }
+      }
+    }
+    return names;
+  }
+
+  private boolean isOwn(String name) {
+    return name.startsWith(nodeId, 14);
+  }
+
+  private static long publishedAt(String name) {
+    try {
+      return Long.parseLong(name.substring(0, 13));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Current usage and limits of the quotas applying to projects created under a project. */
+@Singleton
+class GetQuota implements RestReadView<ProjectResource> {
+  private final PolicyCache policyCache;
+  private final SubtreeCounters subtreeCounters;
+
+  @Inject
+  GetQuota(PolicyCache policyCache, SubtreeCounters subtreeCounters) {
+    this.policyCache = policyCache;
+    this.subtreeCounters = subtreeCounters;
+  }
+
+  @Override
+  public Response<QuotaInfo> apply(ProjectResource resource) throws NoSuchProjectException {
+    String name = resource.getName();
+    ParentPolicy policy = policyCache.get(resource.getNameKey());
+
+    QuotaInfo info = new QuotaInfo();
+    info.root = SubtreeCounters.getRoot(name);
+    info.projects = subtreeCounters.getSubtreeSize(info.root);
+    info.maxProjects = limit(policy.getMaxProjects());
+    info.depth = SubtreeCounters.getDepth(name);
+    info.maxDepth = limit(policy.getMaxDepth());
+    info.children = subtreeCounters.getChildCount(name);
+    info.maxChildren = limit(policy.getMaxChildren());
+    return Response.ok(info);
+  }
+
+  private static Integer limit(int value) {
+    return value > 0 ? value : null;
+  }
+
+  static class QuotaInfo {
+    String root;
+    int projects;
+    Integer maxProjects;
+    int depth;
+    Integer maxDepth;
+    int children;
+    Integer maxChildren;
+  }
+}
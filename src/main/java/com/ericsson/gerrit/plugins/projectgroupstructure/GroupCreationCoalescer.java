@@ -0,0 +1,188 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.extensions.api.groups.Groups;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the owner groups of new projects one at a time.
+ *
+ * <p>Creating a group updates the group names ref of All-Users, so concurrent creations contend
+ * for it and are retried. Groups are instead created in order by a single thread, each one as the
+ * user who requested it. A name that is already taken is replaced by the name with an abbreviated
+ * hash before trying to create it, rather than after a failed write.
+ *
+ * <p>A request whose group is not being created after {@link #TIMEOUT_MS}, e.g. behind a burst of
+ * creations, is given up. A request whose group is being created is waited for, so that its group
+ * is always returned to be owned by the new project.
+ */
+@Singleton
+class GroupCreationCoalescer implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(GroupCreationCoalescer.class);
+
+  private static final long TIMEOUT_MS = SECONDS.toMillis(30);
+
+  private final Groups groups;
+  private final GroupCache groupCache;
+  private final WorkQueue workQueue;
+  private final ThreadLocalRequestContext threadLocalRequestContext;
+  private volatile ExecutorService executor;
+
+  @Inject
+  GroupCreationCoalescer(
+      Groups groups,
+      GroupCache groupCache,
+      WorkQueue workQueue,
+      ThreadLocalRequestContext threadLocalRequestContext) {
+    this.groups = groups;
+    this.groupCache = groupCache;
+    this.workQueue = workQueue;
+    this.threadLocalRequestContext = threadLocalRequestContext;
+  }
+
+  /**
+   * Create a group as the current user, who becomes its member.
+   *
+   * @param name name of the group, suffixed with an abbreviated hash if already taken
+   * @return the UUID of the new group
+   * @throws RestApiException if the group could not be created, or its creation did not start in
+   *     time
+   */
+  AccountGroup.UUID create(String name) throws RestApiException {
+    Request request = new Request(name, threadLocalRequestContext.getContext());
+    ExecutorService current = executor;
+    try {
+      if (current == null) {
+        return createNow(name);
+      }
+      current.execute(() -> run(request));
+    } catch (RejectedExecutionException e) {
+      // stopped meanwhile
+      return createNow(name);
+    }
+    try {
+      try {
+        return request.result.get(TIMEOUT_MS, MILLISECONDS);
+      } catch (TimeoutException e) {
+        if (request.state.compareAndSet(State.PENDING, State.CANCELLED)) {
+          log.warn("Timed out waiting for the creation of group {} to start", name);
+          throw new RestApiException("Timed out while creating group " + name, e);
+        }
+        // already being created, return the group rather than leave it orphaned
+        return request.result.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), RestApiException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RestApiException("Failed to create group " + name, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RestApiException("Interrupted while creating group " + name, e);
+    }
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(1, "ProjectGroupStructure-GroupCreation");
+  }
+
+  @Override
+  public void stop() {
+    ExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      // the requests already queued are still run
+      current.shutdown();
+    }
+  }
+
+  private void run(Request request) {
+    if (!request.state.compareAndSet(State.PENDING, State.RUNNING)) {
+      log.debug("Skipping the creation of group {}, given up", request.name);
+      return;
+    }
+    RequestContext old = threadLocalRequestContext.setContext(request.context);
+    try {
+      request.result.complete(createNow(request.name));
+    } catch (RestApiException | RuntimeException e) {
+      request.result.completeExceptionally(e);
+    } finally {
+      threadLocalRequestContext.setContext(old);
+    }
+  }
+
+  private AccountGroup.UUID createNow(String name) throws RestApiException {
+    String nameWithSha1 =
+        name + "-" + Hashing.sha256().hashString(name, Charsets.UTF_8).toString().substring(0, 7);
+    if (groupCache.get(AccountGroup.nameKey(name)).isPresent()) {
+      log.info("Group name {} is already taken, creating {} instead", name, nameWithSha1);
+      return AccountGroup.UUID.parse(groups.create(nameWithSha1).get().id);
+    }
+    try {
+      return AccountGroup.UUID.parse(groups.create(name).get().id);
+    } catch (ResourceConflictException e) {
+      // name already exists, make sure it is unique by adding a abbreviated
+      // sha1
+      log.info(
+          "Failed to create group name {} because of a conflict: {}, trying to create {} instead",
+          name,
+          e.getMessage(),
+          nameWithSha1);
+      return AccountGroup.UUID.parse(groups.create(nameWithSha1).get().id);
+    }
+  }
+
+  private enum State {
+    PENDING,
+    RUNNING,
+    CANCELLED
+  }
+
+  private static class Request {
+    final String name;
+    final RequestContext context;
+    final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    final CompletableFuture<AccountGroup.UUID> result = new CompletableFuture<>();
+
+    Request(String name, RequestContext context) {
+      this.name = name;
+      this.context = context;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the groups referenced by name in access templates.
+ *
+ * <p>An entry read from the cache is only used if the group it points to still has the same name,
+ * otherwise it is resolved again, so renamed groups are never used under their old name. Groups
+ * that do not exist are not cached.
+ */
+@Singleton
+class GroupResolutionCache {
+  private static final Logger log = LoggerFactory.getLogger(GroupResolutionCache.class);
+
+  static final String CACHE_NAME = "group_names";
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE_NAME, String.class, GroupReference.class)
+            .version(1)
+            .keySerializer(StringCacheSerializer.INSTANCE)
+            .valueSerializer(new Serializer())
+            .diskLimit(16 << 20)
+            .loader(Loader.class);
+      }
+    };
+  }
+
+  private final LoadingCache<String, GroupReference> cache;
+  private final GroupCache groupCache;
+
+  @Inject
+  GroupResolutionCache(
+      @Named(CACHE_NAME) LoadingCache<String, GroupReference> cache, GroupCache groupCache) {
+    this.cache = cache;
+    this.groupCache = groupCache;
+  }
+
+  /** Resolve the group named {@code name}, if it exists. */
+  Optional<GroupReference> get(String name) {
+    try {
+      GroupReference group = cache.get(name);
+      Optional<InternalGroup> current = groupCache.get(group.getUUID());
+      if (current.isPresent() && current.get().getName().equals(name)) {
+        return Optional.of(group);
+      }
+      cache.invalidate(name);
+      return Optional.of(cache.get(name));
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof NoSuchGroupException)) {
+        log.error("Failed to resolve group {}: {}", name, e.getMessage(), e);
+      }
+      return Optional.empty();
+    }
+  }
+
+  static class Loader extends CacheLoader<String, GroupReference> {
+    private final GroupCache groupCache;
+
+    @Inject
+    Loader(GroupCache groupCache) {
+      this.groupCache = groupCache;
+    }
+
+    @Override
+    public GroupReference load(String name) throws NoSuchGroupException {
+      InternalGroup group =
+          groupCache.get(AccountGroup.nameKey(name)).orElseThrow(NoSuchGroupException::new);
+      return GroupReference.create(group.getGroupUUID(), group.getName());
+    }
+  }
+
+  static class Serializer implements CacheSerializer<GroupReference> {
+    @Override
+    public byte[] serialize(GroupReference group) {
+      return (group.getUUID().get() + "\n" + group.getName()).getBytes(UTF_8);
+    }
+
+    @Override
+    public GroupReference deserialize(byte[] bytes) {
+      String value = new String(bytes, UTF_8);
+      int newLine = value.indexOf('\n');
+      return GroupReference.create(
+          AccountGroup.uuid(value.substring(0, newLine)), value.substring(newLine + 1));
+    }
+  }
+
+  private static class NoSuchGroupException extends Exception {
+    private static final long serialVersionUID = 1L;
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the in-memory state of the plugin in the background, so that loading the plugin does not
+ * wait for it.
+ *
+ * <p>The components loaded here, {@link ProjectNameIndex}, {@link SubtreeCounters}, {@link
+ * DelegationIndex} and {@link AccessTemplates}, serve requests received before they are loaded from
+ * uncached lookups. A failed initialization is retried, waiting twice as long after each failure,
+ * from {@link #RETRY_DELAY_MS} up to {@link #MAX_RETRY_DELAY_MS}. The time it took to be ready is
+ * exposed as the {@code init/time_to_ready} metric.
+ */
+@Singleton
+class Initializer implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(Initializer.class);
+
+  private static final long RETRY_DELAY_MS = SECONDS.toMillis(1);
+  private static final long MAX_RETRY_DELAY_MS = MINUTES.toMillis(5);
+
+  enum State {
+    STARTING,
+    INITIALIZING,
+    READY,
+    /** The last initialization failed, it is retried after a delay. */
+    FAILED
+  }
+
+  private final WorkQueue workQueue;
+  private final ProjectNameIndex projectNameIndex;
+  private final DelegationIndex delegationIndex;
+  private final AccessTemplates accessTemplates;
+  private final PolicyWarmUp policyWarmUp;
+
+  private volatile State state = State.STARTING;
+  private volatile long timeToReadyMs;
+  private ScheduledExecutorService executor;
+
+  @Inject
+  Initializer(
+      WorkQueue workQueue,
+      ProjectNameIndex projectNameIndex,
+      DelegationIndex delegationIndex,
+      AccessTemplates accessTemplates,
+      PolicyWarmUp policyWarmUp,
+      MetricMaker metricMaker) {
+    this.workQueue = workQueue;
+    this.projectNameIndex = projectNameIndex;
+    this.delegationIndex = delegationIndex;
+    this.accessTemplates = accessTemplates;
+    this.policyWarmUp = policyWarmUp;
+    metricMaker.newCallbackMetric(
+        "init/time_to_ready",
+        Long.class,
+        new Description("Time from plugin start until its in-memory state was loaded")
+            .setGauge()
+            .setUnit(Units.MILLISECONDS),
+        () -> timeToReadyMs);
+    metricMaker.newCallbackMetric(
+        "init/ready",
+        Boolean.class,
+        new Description("Whether the in-memory state of the plugin is loaded").setGauge(),
+        this::isReady);
+  }
+
+  State getState() {
+    return state;
+  }
+
+  boolean isReady() {
+    return state == State.READY;
+  }
+
+  @Override
+  public synchronized void start() {
+    long start = System.nanoTime();
+    state = State.INITIALIZING;
+    executor = workQueue.createQueue(1, "ProjectGroupStructure-Init");
+    executor.execute(() -> initialize(start, RETRY_DELAY_MS));
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private void initialize(long start, long retryDelayMs) {
+    state = State.INITIALIZING;
+    try {
+      accessTemplates.load();
+      projectNameIndex.load();
+      delegationIndex.load();
+    } catch (RuntimeException e) {
+      state = State.FAILED;
+      log.error(
+          "Failed to initialize, requests are served from uncached lookups, retrying in {} ms",
+          retryDelayMs,
+          e);
+      retry(start, retryDelayMs);
+      return;
+    }
+    timeToReadyMs = NANOSECONDS.toMillis(System.nanoTime() - start);
+    state = State.READY;
+    log.info("Ready in {} ms", timeToReadyMs);
+    policyWarmUp.run();
+  }
+
+  private synchronized void retry(long start, long delayMs) {
+    if (executor == null) {
+      return;
+    }
+    try {
+      executor.schedule(
+          () -> initialize(start, Math.min(2 * delayMs, MAX_RETRY_DELAY_MS)),
+          delayMs,
+          MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // stopped meanwhile
+    }
+  }
+}
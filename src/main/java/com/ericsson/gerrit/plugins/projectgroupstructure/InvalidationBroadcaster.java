@@ -0,0 +1,41 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport of the invalidations of the caches of this plugin between the nodes of a multi-primary
+ * or high-availability setup.
+ *
+ * <p>An invalidation is a cache name and a key whose meaning is defined by the cache, see {@link
+ * CacheInvalidator}. Implementations only deliver the invalidations published by the other nodes;
+ * they may deliver an invalidation more than once, but never to the node that published it.
+ */
+interface InvalidationBroadcaster {
+  /**
+   * Start delivering the invalidations published by the other nodes.
+   *
+   * @param receiver called with the cache name and key of each invalidation
+   */
+  void start(BiConsumer<String, String> receiver) throws IOException;
+
+  /** Stop delivering invalidations. */
+  void stop();
+
+  /** Send an invalidation to the other nodes. */
+  void publish(String cache, String key);
+}
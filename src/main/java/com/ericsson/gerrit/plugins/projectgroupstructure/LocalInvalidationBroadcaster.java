@@ -0,0 +1,35 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import java.util.function.BiConsumer;
+
+/** Broadcaster for a single node: there is no other node to send invalidations to. */
+class LocalInvalidationBroadcaster implements InvalidationBroadcaster {
+  @Override
+  public void start(BiConsumer<String, String> receiver) {
+    // nothing to receive
+  }
+
+  @Override
+  public void stop() {
+    // nothing to do
+  }
+
+  @Override
+  public void publish(String cache, String key) {
+    // nothing to send
+  }
+}
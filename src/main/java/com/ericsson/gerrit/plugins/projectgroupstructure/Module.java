@@ -14,8 +14,16 @@
 
 package com.ericsson.gerrit.plugins.projectgroupstructure;
 
+import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
+import static com.google.gerrit.server.project.ProjectResource.PROJECT_KIND;
+
 import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.restapi.RestApiModule;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.gerrit.server.git.validators.CommitValidationListener;
 import com.google.gerrit.server.validators.ProjectCreationValidationListener;
 import com.google.inject.AbstractModule;
 
@@ -24,6 +32,41 @@ class Module extends AbstractModule {
   protected void configure() {
     DynamicSet.bind(binder(), ProjectCreationValidationListener.class)
         .to(ProjectCreationValidator.class);
+    DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(ProjectCreationValidator.class);
     DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(DefaultAccessRights.class);
+    DynamicSet.bind(binder(), CommitValidationListener.class).to(ReparentValidator.class);
+    DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(ProjectNameIndex.class);
+    DynamicSet.bind(binder(), ProjectDeletedListener.class).to(ProjectNameIndex.class);
+    DynamicSet.bind(binder(), GerritConfigListener.class).to(Configuration.class);
+    install(PolicyCache.module());
+    install(GroupResolutionCache.module());
+    install(PreviewAccessRights.module());
+    install(
+        new LifecycleModule() {
+          @Override
+          protected void configure() {
+            listener().to(CacheInvalidator.class);
+            listener().to(PolicyWarmUp.class);
+            listener().to(Initializer.class);
+            listener().to(AuditLog.class);
+            listener().to(RetryJournal.class);
+            listener().to(BulkCreationQueue.class);
+            listener().to(PolicyUpdateQueue.class);
+            listener().to(GroupCreationCoalescer.class);
+          }
+        });
+    install(
+        new RestApiModule() {
+          @Override
+          protected void configure() {
+            get(PROJECT_KIND, "quota").to(GetQuota.class);
+            get(CONFIG_KIND, "suggest-parents").to(SuggestParents.class);
+            get(CONFIG_KIND, "export").to(ExportStructure.class);
+            get(CONFIG_KIND, "preview-access").to(PreviewAccessRights.class);
+            post(CONFIG_KIND, "create-tree").to(CreateTree.class);
+            get(CONFIG_KIND, "search").to(SearchStructure.class);
+            post(CONFIG_KIND, "update-policies").to(UpdatePolicies.class);
+          }
+        });
   }
 }
@@ -0,0 +1,138 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reserved names that cannot be used in any segment of a project name.
+ *
+ * <p>Reserved names are read from <review_site>/data/project-group-structure/blocklist, one entry
+ * per line. An entry matches a whole segment, unless it starts or ends with {@code *} in which case
+ * it matches the end, the beginning or any part of a segment. Matching is case insensitive and the
+ * file is reloaded as soon as it is modified.
+ */
+@Singleton
+class NameBlocklist {
+  private static final Logger log = LoggerFactory.getLogger(NameBlocklist.class);
+
+  static final String BLOCKLIST_FILE = "blocklist";
+
+  private static final char SEPARATOR = '/';
+  private static final String WILDCARD = "*";
+
+  private final File file;
+  private volatile Entries entries;
+
+  @Inject
+  NameBlocklist(@PluginData Path dataDir) {
+    file = dataDir.resolve(BLOCKLIST_FILE).toFile();
+    entries = load();
+  }
+
+  /** Return the reserved name found in {@code projectName}, if any. */
+  Optional<String> findReservedName(String projectName) {
+    Entries current = entries;
+    if (current.snapshot.isModified(file)) {
+      current = reload();
+    }
+    if (current.matcher.isEmpty()) {
+      return Optional.empty();
+    }
+    String text = SEPARATOR + projectName.toLowerCase(Locale.ROOT) + SEPARATOR;
+    return current.matcher.findFirst(text).map(current.patternToEntry::get);
+  }
+
+  private synchronized Entries reload() {
+    if (entries.snapshot.isModified(file)) {
+      entries = load();
+    }
+    return entries;
+  }
+
+  private Entries load() {
+    FileSnapshot snapshot = FileSnapshot.save(file);
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return new Entries(snapshot, new HashMap<>());
+    } catch (IOException e) {
+      // Keep enforcing the other rules even if reserved names cannot be read
+      log.error(
+          "Failed to load blocklist {}, no reserved name will be enforced: {}",
+          file.getAbsolutePath(),
+          e.getMessage(),
+          e);
+      return new Entries(snapshot, new HashMap<>());
+    }
+
+    Map<String, String> patternToEntry = new HashMap<>();
+    for (String line : lines) {
+      String entry = line.trim();
+      if (entry.isEmpty() || entry.startsWith("#")) {
+        continue;
+      }
+      String pattern = toPattern(entry.toLowerCase(Locale.ROOT));
+      if (pattern == null) {
+        log.error("Invalid blocklist entry: {}", entry);
+        continue;
+      }
+      patternToEntry.putIfAbsent(pattern, entry);
+    }
+    log.info("Loaded {} reserved names from {}", patternToEntry.size(), file.getAbsolutePath());
+    return new Entries(snapshot, patternToEntry);
+  }
+
+  private static String toPattern(String entry) {
+    boolean anyPrefix = entry.startsWith(WILDCARD);
+    boolean anySuffix = entry.length() > 1 && entry.endsWith(WILDCARD);
+    String word =
+        entry.substring(anyPrefix ? 1 : 0, entry.length() - (anySuffix ? 1 : 0)).trim();
+    if (word.isEmpty() || word.indexOf(SEPARATOR) >= 0 || word.contains(WILDCARD)) {
+      return null;
+    }
+    return (anyPrefix ? "" : String.valueOf(SEPARATOR)) + word + (anySuffix ? "" : SEPARATOR);
+  }
+
+  private static class Entries {
+    final FileSnapshot snapshot;
+    final Map<String, String> patternToEntry;
+    final AhoCorasickMatcher matcher;
+
+    Entries(FileSnapshot snapshot, Map<String, String> patternToEntry) {
+      this.snapshot = snapshot;
+      this.patternToEntry = patternToEntry;
+      this.matcher = new AhoCorasickMatcher(new ArrayList<>(patternToEntry.keySet()));
+    }
+  }
+}
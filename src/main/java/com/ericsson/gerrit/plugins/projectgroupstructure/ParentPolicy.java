@@ -0,0 +1,145 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.ericsson.gerrit.plugins.projectgroupstructure.ProjectCreationValidator.DISABLE_GRANTING_PROJECT_OWNERSHIP;
+import static com.ericsson.gerrit.plugins.projectgroupstructure.ProjectCreationValidator.MAX_CHILDREN;
+import static com.ericsson.gerrit.plugins.projectgroupstructure.ProjectCreationValidator.MAX_DEPTH;
+import static com.ericsson.gerrit.plugins.projectgroupstructure.ProjectCreationValidator.MAX_PROJECTS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Structure policy of a parent project, i.e. the plugin section of its project.config resolved
+ * with inheritance.
+ *
+ * <p>Project creation is delegated to the groups set on the nearest project setting them, the
+ * project itself or one of its parents.
+ */
+class ParentPolicy {
+  private final ImmutableList<GroupReference> delegateProjectCreationTo;
+  private final boolean disableGrantingProjectOwnership;
+  private final int maxProjects;
+  private final int maxDepth;
+  private final int maxChildren;
+  // IDs of the delegate groups in this JVM, computed on first use
+  private volatile BitSet delegateIds;
+
+  static ParentPolicy fromPluginConfig(
+      PluginConfig config, ImmutableList<GroupReference> delegateProjectCreationTo) {
+    return new ParentPolicy(
+        delegateProjectCreationTo,
+        config.getBoolean(DISABLE_GRANTING_PROJECT_OWNERSHIP, false),
+        config.getInt(MAX_PROJECTS, 0),
+        config.getInt(MAX_DEPTH, 0),
+        config.getInt(MAX_CHILDREN, 0));
+  }
+
+  ParentPolicy(
+      ImmutableList<GroupReference> delegateProjectCreationTo,
+      boolean disableGrantingProjectOwnership,
+      int maxProjects,
+      int maxDepth,
+      int maxChildren) {
+    this.delegateProjectCreationTo = delegateProjectCreationTo;
+    this.disableGrantingProjectOwnership = disableGrantingProjectOwnership;
+    this.maxProjects = maxProjects;
+    this.maxDepth = maxDepth;
+    this.maxChildren = maxChildren;
+  }
+
+  ImmutableList<GroupReference> getDelegateProjectCreationTo() {
+    return delegateProjectCreationTo;
+  }
+
+  BitSet getDelegateIds(DelegateGroups delegateGroups) {
+    BitSet ids = delegateIds;
+    if (ids == null) {
+      ids = delegateGroups.intern(delegateProjectCreationTo);
+      delegateIds = ids;
+    }
+    return ids;
+  }
+
+  boolean isDisableGrantingProjectOwnership() {
+    return disableGrantingProjectOwnership;
+  }
+
+  /** Maximum number of projects under the root, 0 if unlimited. */
+  int getMaxProjects() {
+    return maxProjects;
+  }
+
+  /** Maximum number of slashes in project names, 0 if unlimited. */
+  int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /** Maximum number of direct children of a project, 0 if unlimited. */
+  int getMaxChildren() {
+    return maxChildren;
+  }
+
+  /** Serializer of the persistent policy cache, see {@link PolicyCache}. */
+  static class Serializer implements CacheSerializer<ParentPolicy> {
+    @Override
+    public byte[] serialize(ParentPolicy policy) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(policy.delegateProjectCreationTo.size());
+        for (GroupReference group : policy.delegateProjectCreationTo) {
+          out.writeUTF(group.getUUID().get());
+          out.writeUTF(group.getName());
+        }
+        out.writeBoolean(policy.disableGrantingProjectOwnership);
+        out.writeInt(policy.maxProjects);
+        out.writeInt(policy.maxDepth);
+        out.writeInt(policy.maxChildren);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize policy", e);
+      }
+      return bytes.toByteArray();
+    }
+
+    @Override
+    public ParentPolicy deserialize(byte[] bytes) {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+        ImmutableList.Builder<GroupReference> delegateProjectCreationTo = ImmutableList.builder();
+        for (int i = in.readInt(); i > 0; i--) {
+          AccountGroup.UUID uuid = AccountGroup.uuid(in.readUTF());
+          delegateProjectCreationTo.add(GroupReference.create(uuid, in.readUTF()));
+        }
+        return new ParentPolicy(
+            delegateProjectCreationTo.build(),
+            in.readBoolean(),
+            in.readInt(),
+            in.readInt(),
+            in.readInt());
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize policy", e);
+      }
+    }
+  }
+}
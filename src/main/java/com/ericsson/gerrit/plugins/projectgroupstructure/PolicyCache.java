@@ -0,0 +1,180 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the {@link ParentPolicy} of parent projects.
+ *
+ * <p>Since the policy is resolved with inheritance, entries are keyed by the project name and the
+ * refs/meta/config revisions of the project and all its parents: an update of any of them leads to
+ * a new key, so entries read from disk after a restart are never stale. Updates of refs/meta/config
+ * branches are also broadcast through {@link CacheInvalidator} for the caches derived from the
+ * policies.
+ */
+@Singleton
+class PolicyCache implements GitReferenceUpdatedListener {
+  private static final Logger log = LoggerFactory.getLogger(PolicyCache.class);
+
+  static final String CACHE_NAME = "policy";
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE_NAME, String.class, ParentPolicy.class)
+            .version(3)
+            .keySerializer(StringCacheSerializer.INSTANCE)
+            .valueSerializer(new ParentPolicy.Serializer())
+            .diskLimit(16 << 20)
+            .loader(Loader.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(PolicyCache.class);
+      }
+    };
+  }
+
+  private final LoadingCache<String, ParentPolicy> cache;
+  private final ProjectCache projectCache;
+  private final CacheInvalidator cacheInvalidator;
+
+  @Inject
+  PolicyCache(
+      @Named(CACHE_NAME) LoadingCache<String, ParentPolicy> cache,
+      ProjectCache projectCache,
+      CacheInvalidator cacheInvalidator) {
+    this.cache = cache;
+    this.projectCache = projectCache;
+    this.cacheInvalidator = cacheInvalidator;
+  }
+
+  ParentPolicy get(Project.NameKey project) throws NoSuchProjectException {
+    ProjectState state =
+        projectCache.get(project).orElseThrow(() -> new NoSuchProjectException(project));
+    try {
+      return cache.get(key(state));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof NoSuchProjectException) {
+        throw (NoSuchProjectException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      cacheInvalidator.invalidate(CacheInvalidator.POLICY, event.getProjectName());
+    }
+  }
+
+  private static String key(ProjectState state) {
+    Hasher revisions = Hashing.murmur3_128().newHasher();
+    for (ProjectState s : state.treeInOrder()) {
+      revisions.putString(s.getName(), UTF_8);
+      revisions.putString(
+          s.getConfig().getRevision().map(ObjectId::name).orElse(ObjectId.zeroId().name()),
+          UTF_8);
+    }
+    return state.getName() + "@" + revisions.hash();
+  }
+
+  static class Loader extends CacheLoader<String, ParentPolicy> {
+    private final PluginConfigFactory cfg;
+    private final ProjectCache projectCache;
+    private final String pluginName;
+
+    @Inject
+    Loader(PluginConfigFactory cfg, ProjectCache projectCache, @PluginName String pluginName) {
+      this.cfg = cfg;
+      this.projectCache = projectCache;
+      this.pluginName = pluginName;
+    }
+
+    @Override
+    public ParentPolicy load(String key) throws NoSuchProjectException {
+      Project.NameKey project = Project.nameKey(key.substring(0, key.lastIndexOf('@')));
+      ProjectState state =
+          projectCache.get(project).orElseThrow(() -> new NoSuchProjectException(project));
+      return ParentPolicy.fromPluginConfig(
+          cfg.getFromProjectConfigWithInheritance(state, pluginName), delegates(state));
+    }
+
+    /**
+     * Collect the delegate groups set on the nearest project setting them, the project itself or
+     * one of its parents, so that a subtree can override the delegates of its parents. A value is a
+     * group reference, "group <name>", resolved through the groups file of the project it is set
+     * on.
+     */
+    private ImmutableList<GroupReference> delegates(ProjectState state) {
+      Map<AccountGroup.UUID, GroupReference> delegates = new LinkedHashMap<>();
+      for (ProjectState s : state.tree()) {
+        String[] values =
+            cfg.getFromProjectConfig(s, pluginName)
+                .getStringList(ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO);
+        if (values.length == 0) {
+          continue;
+        }
+        for (String value : values) {
+          String name = GroupReference.extractGroupName(value);
+          if (name == null) {
+            continue;
+          }
+          Optional<GroupReference> group =
+              s.getConfig().getGroups().values().stream()
+                  .filter(g -> g.getName().equals(name))
+                  .findFirst();
+          if (group.isPresent()) {
+            delegates.putIfAbsent(group.get().getUUID(), group.get());
+          } else {
+            log.warn("Delegate group {} of {} is not in its groups file", name, s.getName());
+          }
+        }
+        break;
+      }
+      return ImmutableList.copyOf(delegates.values());
+    }
+  }
+}
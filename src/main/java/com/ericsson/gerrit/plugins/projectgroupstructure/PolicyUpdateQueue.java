@@ -0,0 +1,28 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Bounded pool updating the policies of root projects in parallel, see {@link UpdatePolicies}. */
+@Singleton
+class PolicyUpdateQueue extends BoundedQueue {
+  @Inject
+  PolicyUpdateQueue(WorkQueue workQueue, Configuration config) {
+    super(workQueue, "ProjectGroupStructure-PolicyUpdate", () -> config.getPolicyUpdateThreads());
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optionally loads the policies of the root projects, or of the configured hot list, into the
+ * {@link PolicyCache} once the plugin is initialized, so that the first project created under a
+ * busy root after a restart does not pay for reading the inherited configuration.
+ *
+ * <p>Roots are loaded in parallel on a small pool, at a limited rate so that the warm-up does not
+ * compete with the requests. Progress is logged every tenth of the roots and exposed as the {@code
+ * warmup/roots_loaded} metric.
+ */
+@Singleton
+class PolicyWarmUp implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(PolicyWarmUp.class);
+
+  private final Configuration config;
+  private final WorkQueue workQueue;
+  private final ProjectNameIndex projectNameIndex;
+  private final PolicyCache policyCache;
+  private final AtomicInteger loaded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+
+  private ExecutorService executor;
+
+  @Inject
+  PolicyWarmUp(
+      Configuration config,
+      WorkQueue workQueue,
+      ProjectNameIndex projectNameIndex,
+      PolicyCache policyCache,
+      MetricMaker metricMaker) {
+    this.config = config;
+    this.workQueue = workQueue;
+    this.projectNameIndex = projectNameIndex;
+    this.policyCache = policyCache;
+    metricMaker.newCallbackMetric(
+        "warmup/roots_loaded",
+        Integer.class,
+        new Description("Number of root projects whose policy was loaded by the warm-up")
+            .setGauge(),
+        this::getRootsLoaded);
+  }
+
+  /** Number of root projects whose policy was loaded by the warm-up. */
+  int getRootsLoaded() {
+    return loaded.get();
+  }
+
+  @Override
+  public synchronized void start() {
+    if (config.isWarmUpEnabled()) {
+      executor = workQueue.createQueue(config.getWarmUpThreads(), "ProjectGroupStructure-WarmUp");
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /** Start the warm-up, if enabled. Called by {@link Initializer} once the plugin is ready. */
+  synchronized void run() {
+    if (executor == null) {
+      return;
+    }
+    List<String> roots =
+        config.getWarmUpRoots().isEmpty()
+            ? ImmutableList.copyOf(projectNameIndex.rootsWithPrefix(""))
+            : config.getWarmUpRoots();
+    ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>(roots);
+    RateLimiter rateLimiter =
+        config.getWarmUpRate() > 0 ? RateLimiter.create(config.getWarmUpRate()) : null;
+    AtomicInteger processed = new AtomicInteger();
+    int total = roots.size();
+    int step = Math.max(1, total / 10);
+    long start = System.nanoTime();
+    log.info("Warming up the policies of {} root projects", total);
+    for (int i = 0; i < config.getWarmUpThreads(); i++) {
+      executor.execute(
+          () -> {
+            String root;
+            while (!Thread.currentThread().isInterrupted() && (root = pending.poll()) != null) {
+              if (rateLimiter != null) {
+                rateLimiter.acquire();
+              }
+              if (load(root)) {
+                loaded.incrementAndGet();
+              } else {
+                failed.incrementAndGet();
+              }
+              int done = processed.incrementAndGet();
+              if (done == total) {
+                log.info(
+                    "Warmed up the policies of {} root projects in {} ms, {} failed",
+                    loaded.get(),
+                    NANOSECONDS.toMillis(System.nanoTime() - start),
+                    failed.get());
+              } else if (done % step == 0) {
+                log.info("Warmed up the policies of {}/{} root projects", done, total);
+              }
+            }
+          });
+    }
+  }
+
+  private boolean load(String root) {
+    try {
+      policyCache.get(Project.nameKey(root));
+      return true;
+    } catch (NoSuchProjectException | RuntimeException e) {
+      log.debug("Failed to warm up the policy of {}: {}", root, e.getMessage());
+      return false;
+    }
+  }
+}
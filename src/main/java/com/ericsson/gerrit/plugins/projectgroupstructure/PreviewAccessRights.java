@@ -0,0 +1,192 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.PermissionRule;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.api.access.AccessSectionInfo;
+import com.google.gerrit.extensions.api.access.PermissionInfo;
+import com.google.gerrit.extensions.api.access.PermissionRuleInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.project.ProjectConfig;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Preview the default access rights that would be set on a new root project, without creating it.
+ *
+ * <p>The template is selected and rendered as for a root project created by the calling user and
+ * owned by the given groups. Results are kept for a few minutes per template version, root name,
+ * owners and user.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+class PreviewAccessRights implements RestReadView<ConfigResource> {
+  static final String CACHE_NAME = "preview";
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, PreviewInfo.class)
+            .maximumWeight(1024)
+            .expireAfterWrite(Duration.ofMinutes(10));
+      }
+    };
+  }
+
+  private final Cache<String, PreviewInfo> cache;
+  private final AccessTemplates accessTemplates;
+  private final DefaultAccessRights defaultAccessRights;
+  private final GroupResolutionCache groupResolutionCache;
+  private final ProjectConfig.Factory projectConfigFactory;
+  private final Provider<CurrentUser> self;
+
+  @Option(
+      name = "--root",
+      aliases = {"-r"},
+      metaVar = "ROOT",
+      usage = "name of the root project")
+  private String root;
+
+  @Option(
+      name = "--owner",
+      aliases = {"-o"},
+      metaVar = "GROUP",
+      usage = "name of a group owning the root project, can be repeated")
+  private List<String> owners = new ArrayList<>();
+
+  @Inject
+  PreviewAccessRights(
+      @Named(CACHE_NAME) Cache<String, PreviewInfo> cache,
+      AccessTemplates accessTemplates,
+      DefaultAccessRights defaultAccessRights,
+      GroupResolutionCache groupResolutionCache,
+      ProjectConfig.Factory projectConfigFactory,
+      Provider<CurrentUser> self) {
+    this.cache = cache;
+    this.accessTemplates = accessTemplates;
+    this.defaultAccessRights = defaultAccessRights;
+    this.groupResolutionCache = groupResolutionCache;
+    this.projectConfigFactory = projectConfigFactory;
+    this.self = self;
+  }
+
+  @Override
+  public Response<PreviewInfo> apply(ConfigResource resource)
+      throws BadRequestException, ExecutionException {
+    if (root == null || root.isEmpty() || root.indexOf('/') >= 0) {
+      throw new BadRequestException("root must be the name of a root project");
+    }
+    CurrentUser user = self.get();
+    AccessTemplate template = accessTemplates.select(root, user.getEffectiveGroups());
+    String creator = user.getUserName().orElseGet(user::getLoggableName);
+    String key =
+        String.join(
+            "\n",
+            template.getName(),
+            template.getVersion(),
+            root,
+            creator,
+            String.join("\n", owners));
+    return Response.ok(cache.get(key, () -> render(template, creator)));
+  }
+
+  private PreviewInfo render(AccessTemplate template, String creator) {
+    PreviewInfo info = new PreviewInfo();
+    info.template = template.getName();
+    info.version = template.getVersion();
+    info.errors = new ArrayList<>(template.getErrors());
+
+    List<GroupReference> ownerGroups = new ArrayList<>();
+    for (String owner : owners) {
+      Optional<GroupReference> group = groupResolutionCache.get(owner);
+      if (group.isPresent()) {
+        ownerGroups.add(group.get());
+      } else {
+        info.errors.add(String.format("Owner group %s not found", owner));
+      }
+    }
+    ownerGroups.sort(
+        Comparator.comparing(GroupReference::getName).thenComparing(g -> g.getUUID().get()));
+
+    ProjectConfig config = projectConfigFactory.create(Project.nameKey(root));
+    defaultAccessRights.setAccessRights(
+        config,
+        template,
+        ownerGroups,
+        DefaultAccessRights.variables(root, creator),
+        info.errors);
+
+    info.local = new LinkedHashMap<>();
+    info.groups = new HashMap<>();
+    for (AccessSection section : config.getAccessSections()) {
+      AccessSectionInfo sectionInfo = new AccessSectionInfo();
+      sectionInfo.permissions = new LinkedHashMap<>();
+      for (Permission permission : section.getPermissions()) {
+        PermissionInfo permissionInfo =
+            new PermissionInfo(
+                permission.getLabel(), permission.getExclusiveGroup() ? true : null);
+        permissionInfo.rules = new LinkedHashMap<>();
+        for (PermissionRule rule : permission.getRules()) {
+          PermissionRuleInfo ruleInfo =
+              new PermissionRuleInfo(
+                  PermissionRuleInfo.Action.valueOf(rule.getAction().name()),
+                  rule.getForce() ? true : null);
+          if (rule.hasRange()) {
+            ruleInfo.min = rule.getMin();
+            ruleInfo.max = rule.getMax();
+          }
+          permissionInfo.rules.put(rule.getGroup().getUUID().get(), ruleInfo);
+          info.groups.put(rule.getGroup().getUUID().get(), rule.getGroup().getName());
+        }
+        sectionInfo.permissions.put(permission.getName(), permissionInfo);
+      }
+      info.local.put(section.getName(), sectionInfo);
+    }
+    return info;
+  }
+
+  static class PreviewInfo {
+    String template;
+    String version;
+    Map<String, AccessSectionInfo> local;
+    Map<String, String> groups;
+    List<String> errors;
+  }
+}
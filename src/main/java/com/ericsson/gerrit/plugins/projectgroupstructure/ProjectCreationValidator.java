@@ -16,41 +16,60 @@ package com.ericsson.gerrit.plugins.projectgroupstructure;
 
 import static com.ericsson.gerrit.plugins.projectgroupstructure.Configuration.SEE_DOCUMENTATION_MSG;
 
-import com.google.common.base.Charsets;
-import com.google.common.hash.Hashing;
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.entities.AccountGroup;
-import com.google.gerrit.entities.GroupReference;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.annotations.PluginCanonicalWebUrl;
-import com.google.gerrit.extensions.annotations.PluginName;
-import com.google.gerrit.extensions.api.groups.Groups;
-import com.google.gerrit.extensions.common.GroupInfo;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
 import com.google.gerrit.extensions.restapi.AuthException;
-import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.server.CurrentUser;
-import com.google.gerrit.server.account.GroupMembership;
 import com.google.gerrit.server.config.AllProjectsNameProvider;
-import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
 import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.permissions.ProjectPermission;
 import com.google.gerrit.server.project.CreateProjectArgs;
 import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.validators.ProjectCreationValidationListener;
 import com.google.gerrit.server.validators.ValidationException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @Singleton
-public class ProjectCreationValidator implements ProjectCreationValidationListener {
+public class ProjectCreationValidator
+    implements ProjectCreationValidationListener, NewProjectCreatedListener {
   private static final Logger log = LoggerFactory.getLogger(ProjectCreationValidator.class);
 
+  // how long a creation waits for the validation of the same project in progress
+  private static final long FOLLOW_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+  // how long an accepted validation is shared if its project is not created
+  private static final long FLIGHT_RETENTION_MS = TimeUnit.MINUTES.toMillis(5);
+
   private static final String AN_ERROR_OCCURRED_MSG =
       "An error occurred while creating project, please contact Gerrit support";
 
@@ -58,6 +77,11 @@ public class ProjectCreationValidator implements ProjectCreationValidationListen
       "You must be owner of the parent project \"%s\" to create a nested project."
           + SEE_DOCUMENTATION_MSG;
 
+  private static final String PROJECT_ALREADY_EXISTS_MSG = "Project \"%s\" already exists.";
+
+  private static final String PROJECT_BEING_CREATED_MSG =
+      "Project \"%s\" is already being created, please try again later.";
+
   private static final String PROJECT_CANNOT_CONTAINS_SPACES_MSG =
       "Project name cannot contain spaces." + SEE_DOCUMENTATION_MSG;
 
@@ -84,185 +108,686 @@ public class ProjectCreationValidator implements ProjectCreationValidationListen
   private static final String PROJECT_SHOULD_MATCH_REGEX_MSG =
       "Project name should match the regex: %s." + SEE_DOCUMENTATION_MSG;
 
+  private static final String PROJECT_CANNOT_CONTAIN_RESERVED_NAME_MSG =
+      "Project name cannot contain the reserved name \"%s\"." + SEE_DOCUMENTATION_MSG;
+
+  private static final String MAX_PROJECTS_REACHED_MSG =
+      "Root project \"%s\" already contains the maximum number of projects (%d)."
+          + SEE_DOCUMENTATION_MSG;
+
+  private static final String MAX_DEPTH_REACHED_MSG =
+      "Projects cannot be nested deeper than %d levels under their root project."
+          + SEE_DOCUMENTATION_MSG;
+
+  private static final String MAX_CHILDREN_REACHED_MSG =
+      "Project \"%s\" already contains the maximum number of child projects (%d)."
+          + SEE_DOCUMENTATION_MSG;
+
   static final String DELEGATE_PROJECT_CREATION_TO = "delegateProjectCreationTo";
 
   static final String DISABLE_GRANTING_PROJECT_OWNERSHIP = "disableGrantingProjectOwnership";
 
-  private final Groups groups;
+  static final String MAX_PROJECTS = "maxProjects";
+
+  static final String MAX_DEPTH = "maxDepth";
+
+  static final String MAX_CHILDREN = "maxChildren";
+
+  // Stages timed in request traces and performance logs
+  private static final String TRACE_CHECK_ADMIN = "project-group-structure: check admin";
+  private static final String TRACE_CHECK_OWNER = "project-group-structure: check owner";
+  private static final String TRACE_LOAD_POLICY = "project-group-structure: load policy";
+  private static final String TRACE_CREATE_GROUP = "project-group-structure: create group";
+
+  /** Rules whose violation rejects a project, as reported in the audit log. */
+  enum Rule {
+    NAME_REGEX,
+    NAME_SPACES,
+    RESERVED_NAME,
+    PROJECT_EXISTS,
+    ROOT_NAME_SLASHES,
+    ROOT_NOT_PERMISSIONS_ONLY,
+    PARENT_NAME_PREFIX,
+    NOT_OWNER,
+    MAX_DEPTH,
+    MAX_PROJECTS,
+    MAX_CHILDREN,
+    ERROR
+  }
+
+  private final GroupCreationCoalescer groupCreationCoalescer;
   private final String documentationUrl;
   private final AllProjectsNameProvider allProjectsName;
   private final Provider<CurrentUser> self;
+  private final ProjectCache projectCache;
   private final PermissionBackend permissionBackend;
-  private final PluginConfigFactory cfg;
-  private final String pluginName;
+  private final PolicyCache policyCache;
+  private final DelegateGroups delegateGroups;
+  private final SubtreeCounters subtreeCounters;
+  private final NameBlocklist nameBlocklist;
+  private final AuditLog auditLog;
   private final Configuration config;
+  // project of a validated tree created by the current thread, see createValidated
+  private final ThreadLocal<ProjectInput> validatedProject = new ThreadLocal<>();
+  // validations in progress, or accepted and not created yet, by project
+  private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
 
   @Inject
   public ProjectCreationValidator(
-      Groups groups,
+      GroupCreationCoalescer groupCreationCoalescer,
       @PluginCanonicalWebUrl String url,
       AllProjectsNameProvider allProjectsName,
       Provider<CurrentUser> self,
+      ProjectCache projectCache,
       PermissionBackend permissionBackend,
-      PluginConfigFactory cfg,
-      Configuration config,
-      @PluginName String pluginName) {
-    this.groups = groups;
+      PolicyCache policyCache,
+      DelegateGroups delegateGroups,
+      SubtreeCounters subtreeCounters,
+      NameBlocklist nameBlocklist,
+      AuditLog auditLog,
+      Configuration config) {
+    this.groupCreationCoalescer = groupCreationCoalescer;
     this.documentationUrl = url + Configuration.DOCUMENTATION_PATH;
     this.allProjectsName = allProjectsName;
     this.self = self;
+    this.projectCache = projectCache;
     this.permissionBackend = permissionBackend;
-    this.cfg = cfg;
-    this.pluginName = pluginName;
+    this.policyCache = policyCache;
+    this.delegateGroups = delegateGroups;
+    this.subtreeCounters = subtreeCounters;
+    this.nameBlocklist = nameBlocklist;
+    this.auditLog = auditLog;
     this.config = config;
   }
 
   @Override
   public void validateNewProject(CreateProjectArgs args) throws ValidationException {
+    long start = System.nanoTime();
     String name = args.getProjectName();
-    log.debug("validating creation of {}", name);
-    String regex = config.getRegexNameFilter();
-    if (!(name.matches(regex))) {
-      throw new ValidationException(
-          String.format(PROJECT_SHOULD_MATCH_REGEX_MSG, regex, documentationUrl));
+    if (isValidatedProject(args)) {
+      log.debug("{} was validated with its tree", name);
+      return;
     }
-    if (name.contains(" ")) {
-      throw new ValidationException(
-          String.format(PROJECT_CANNOT_CONTAINS_SPACES_MSG, documentationUrl));
+    CurrentUser user = self.get();
+    Flight flight = new Flight(userKey(user, name), args.newParent);
+    inFlight.values().removeIf(Flight::isExpired);
+    Flight leader = inFlight.compute(name, (k, current) -> current == null ? flight : current);
+    if (leader != flight && leader.isSameCreation(flight)) {
+      follow(leader, args, user, start);
+      return;
     }
+    // the project may be validated for another user or parent at the same time, only one of them
+    // can then be created
+    int ownerCount = args.ownerIds.size();
+    try {
+      String decision = validate(args, user, start);
+      audit(AuditLog.CREATE, decision, user, name, args.newParent, null, start);
+      flight.accept(
+          new Outcome(
+              decision,
+              ImmutableList.copyOf(args.ownerIds.subList(ownerCount, args.ownerIds.size())),
+              null));
+    } catch (ValidationException e) {
+      inFlight.remove(name, flight);
+      audit(AuditLog.CREATE, AuditLog.REJECT, user, name, args.newParent, ruleOf(e), start);
+      flight.outcome.complete(new Outcome(AuditLog.REJECT, ImmutableList.of(), e));
+      throw e;
+    } catch (RuntimeException e) {
+      inFlight.remove(name, flight);
+      flight.outcome.completeExceptionally(e);
+      throw e;
+    }
+  }
 
-    Project.NameKey newParent = args.newParent;
+  @Override
+  public void onNewProjectCreated(NewProjectCreatedListener.Event event) {
+    inFlight.remove(event.getProjectName());
+  }
 
+  /**
+   * Share the outcome of the validation of the same project by the same user that is in progress,
+   * or accepted and whose project is not created yet, e.g. for a retried request, rather than
+   * validating it and creating its owner group again. The creation is rejected if the validation
+   * does not complete within {@link #FOLLOW_TIMEOUT_MS}.
+   */
+  private void follow(Flight leader, CreateProjectArgs args, CurrentUser user, long start)
+      throws ValidationException {
+    String name = args.getProjectName();
+    log.debug("waiting for the validation of {} in progress", name);
+    Outcome outcome;
     try {
-      permissionBackend.user(self.get()).check(GlobalPermission.ADMINISTRATE_SERVER);
+      outcome = leader.outcome.get(FOLLOW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      log.warn("Timed out waiting for the validation of {} in progress", name);
+      ValidationException rejection =
+          violation(Rule.ERROR, String.format(PROJECT_BEING_CREATED_MSG, name));
+      audit(AuditLog.CREATE, AuditLog.REJECT, user, name, args.newParent, ruleOf(rejection), start);
+      throw rejection;
+    } catch (ExecutionException e) {
+      log.error("Failed to validate {}: {}", name, e.getCause().getMessage());
+      throw violation(Rule.ERROR, AN_ERROR_OCCURRED_MSG);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw violation(Rule.ERROR, AN_ERROR_OCCURRED_MSG);
+    }
+    if (outcome.rejection != null) {
+      audit(
+          AuditLog.CREATE,
+          AuditLog.REJECT,
+          user,
+          name,
+          args.newParent,
+          ruleOf(outcome.rejection),
+          start);
+      throw violation(getRule(outcome.rejection), outcome.rejection.getMessage());
+    }
+    args.ownerIds.addAll(outcome.ownerIds);
+    audit(AuditLog.CREATE, outcome.decision, user, name, args.newParent, null, start);
+  }
+
+  private String validate(CreateProjectArgs args, CurrentUser user, long start)
+      throws ValidationException {
+    String name = args.getProjectName();
+    log.debug("validating creation of {}", name);
+    validateName(name);
+    if (projectCache.get(Project.nameKey(name)).isPresent()) {
+      // fail before creating an owner group for a project that cannot be created
+      log.debug("rejecting creation of {}: project already exists", name);
+      throw violation(Rule.PROJECT_EXISTS, String.format(PROJECT_ALREADY_EXISTS_MSG, name));
+    }
+
+    Project.NameKey newParent = args.newParent;
 
+    if (isAdmin(user)) {
       // Admins can bypass any rules to support creating projects that doesn't
       // comply with the new naming rules. New projects structures have to
       // comply but we need to be able to add new project to an existing non
       // compliant structure.
       log.debug("admin is creating project, bypassing all rules");
-      return;
-    } catch (AuthException | PermissionBackendException e) {
-      // continuing
-    }
-
-    if (name.contains(" ")) {
-      throw new ValidationException(
-          String.format(PROJECT_CANNOT_CONTAINS_SPACES_MSG, documentationUrl));
+      return AuditLog.ADMIN_BYPASS;
     }
 
     if (allProjectsName.get().equals(newParent)) {
       validateRootProject(name, args.permissionsOnly);
     } else {
-      validateProject(name, newParent);
+      validateProject(name, newParent, user, QuotaCheck.RESERVE);
     }
 
     // If we reached that point, it means we allow project creation. Make the
     // user an owner if not already by inheritance.
-    if (!isOwner(newParent) && !configDisableGrantingOwnership(newParent)) {
-      args.ownerIds.add(createGroup(name + "-admins"));
+    try {
+      if (needsOwnerGroup(newParent, user)) {
+        AccountGroup.UUID ownerGroup = createGroup(name + "-admins");
+        args.ownerIds.add(ownerGroup);
+        audit(
+            AuditLog.CREATE,
+            AuditLog.GRANT_OWNERSHIP,
+            user,
+            name,
+            newParent,
+            ownerGroup.get(),
+            start);
+      }
+    } catch (ValidationException | RuntimeException e) {
+      subtreeCounters.release(name);
+      throw e;
     }
+    return AuditLog.ACCEPT;
   }
 
-  private boolean isOwner(Project.NameKey project) {
+  private void validateName(String name) throws ValidationException {
+    Pattern regex = config.get().getNameRegex();
+    if (!regex.matcher(name).matches()) {
+      throw violation(
+          Rule.NAME_REGEX,
+          String.format(PROJECT_SHOULD_MATCH_REGEX_MSG, regex.pattern(), documentationUrl));
+    }
+    if (name.contains(" ")) {
+      throw violation(
+          Rule.NAME_SPACES, String.format(PROJECT_CANNOT_CONTAINS_SPACES_MSG, documentationUrl));
+    }
+    Optional<String> reservedName = nameBlocklist.findReservedName(name);
+    if (reservedName.isPresent()) {
+      log.debug("rejecting creation of {}: name contains {}", name, reservedName.get());
+      throw violation(
+          Rule.RESERVED_NAME,
+          String.format(
+              PROJECT_CANNOT_CONTAIN_RESERVED_NAME_MSG, reservedName.get(), documentationUrl));
+    }
+  }
+
+  /**
+   * Validate that an existing project can inherit from {@code newParent} without breaking the
+   * project group structure, i.e. apply the same rules as when the project is created.
+   */
+  void validateNewParent(String name, Project.NameKey newParent, CurrentUser user)
+      throws ValidationException {
+    long start = System.nanoTime();
+    log.debug("validating new parent {} of {}", newParent.get(), name);
     try {
-      permissionBackend.user(self.get()).project(project).check(ProjectPermission.WRITE_CONFIG);
-    } catch (AuthException | PermissionBackendException noWriter) {
-      try {
-        permissionBackend.user(self.get()).check(GlobalPermission.ADMINISTRATE_SERVER);
-      } catch (AuthException | PermissionBackendException noAdmin) {
-        return false;
+      if (isAdmin(user)) {
+        log.debug("admin is changing parent, bypassing all rules");
+        audit(AuditLog.REPARENT, AuditLog.ADMIN_BYPASS, user, name, newParent, null, start);
+        return;
+      }
+      if (allProjectsName.get().equals(newParent)) {
+        validateRootProjectName(name);
+      } else {
+        validateProject(name, newParent, user, QuotaCheck.CHECK);
       }
+      audit(AuditLog.REPARENT, AuditLog.ACCEPT, user, name, newParent, null, start);
+    } catch (ValidationException e) {
+      audit(AuditLog.REPARENT, AuditLog.REJECT, user, name, newParent, ruleOf(e), start);
+      throw e;
+    }
+  }
+
+  /**
+   * Validate the creation of a tree of projects as a unit.
+   *
+   * <p>The naming rules apply to every project. Ownership is only checked for the parents that
+   * already exist, and the slots of the projects of the tree are reserved until they are created
+   * or {@link #releaseTree} is called. The projects are then created by {@link #createValidated},
+   * which does not validate them again.
+   *
+   * @param projects new projects mapped to their parent, parents first
+   * @param permissionsOnly names of the new projects only serving as parent for other projects
+   * @param user user creating the projects
+   * @return the new projects whose parent already exists and that the user has to be given
+   *     ownership of, see {@link #createTreeOwnerGroup}
+   */
+  List<String> validateTree(
+      Map<String, Project.NameKey> projects, Set<String> permissionsOnly, CurrentUser user)
+      throws ValidationException {
+    long start = System.nanoTime();
+    String name = null;
+    Project.NameKey parent = null;
+    List<String> reserved = new ArrayList<>();
+    try {
+      boolean admin = isAdmin(user);
+      List<String> needOwner = new ArrayList<>();
+      for (Map.Entry<String, Project.NameKey> project : projects.entrySet()) {
+        name = project.getKey();
+        parent = project.getValue();
+        validateName(name);
+        if (admin) {
+          continue;
+        }
+        if (allProjectsName.get().equals(parent)) {
+          validateRootProject(name, permissionsOnly.contains(name));
+        } else {
+          validateParentPrefix(name, parent);
+          Project.NameKey policyProject = parent;
+          while (projects.containsKey(policyProject.get())) {
+            policyProject = projects.get(policyProject.get());
+          }
+          if (policyProject.equals(parent)) {
+            validateCanCreateUnder(name, parent, user);
+          }
+          validateQuotas(name, policyProject, QuotaCheck.RESERVE_UNTIL_RELEASED);
+          reserved.add(name);
+        }
+        if (!projects.containsKey(parent.get()) && needsOwnerGroup(parent, user)) {
+          needOwner.add(name);
+        }
+      }
+
+      for (Map.Entry<String, Project.NameKey> project : projects.entrySet()) {
+        audit(
+            AuditLog.CREATE,
+            admin ? AuditLog.ADMIN_BYPASS : AuditLog.ACCEPT,
+            user,
+            project.getKey(),
+            project.getValue(),
+            null,
+            start);
+      }
+      return needOwner;
+    } catch (ValidationException e) {
+      reserved.forEach(subtreeCounters::release);
+      audit(AuditLog.CREATE, AuditLog.REJECT, user, name, parent, ruleOf(e), start);
+      throw violation(getRule(e), name + ": " + e.getMessage());
+    } catch (RuntimeException e) {
+      reserved.forEach(subtreeCounters::release);
+      throw e;
+    }
+  }
+
+  /**
+   * Create the group owning the projects of a validated tree whose parent already exists, named
+   * after the first of them. It is created once the tree is validated, just before the first of
+   * these projects is created.
+   *
+   * @param owned projects owned by the group, as returned by {@link #validateTree}
+   * @param parents parents of the projects of the tree, by name
+   * @param user user creating the projects
+   */
+  AccountGroup.UUID createTreeOwnerGroup(
+      List<String> owned, Map<String, Project.NameKey> parents, CurrentUser user)
+      throws ValidationException {
+    long start = System.nanoTime();
+    AccountGroup.UUID ownerGroup = createGroup(owned.get(0) + "-admins");
+    for (String name : owned) {
+      audit(
+          AuditLog.CREATE,
+          AuditLog.GRANT_OWNERSHIP,
+          user,
+          name,
+          parents.get(name),
+          ownerGroup.get(),
+          start);
+    }
+    return ownerGroup;
+  }
+
+  /** Callback creating a project, see {@link #createValidated}. */
+  interface ProjectCreation {
+    void create() throws RestApiException;
+  }
+
+  /**
+   * Create a project of a tree validated by {@link #validateTree} on the current thread. Its
+   * creation is not validated again, provided that it is the project of {@code in}, with the same
+   * parent and permissions only option.
+   */
+  void createValidated(ProjectInput in, ProjectCreation creation) throws RestApiException {
+    validatedProject.set(in);
+    try {
+      creation.create();
+    } finally {
+      validatedProject.remove();
+    }
+  }
+
+  private boolean isValidatedProject(CreateProjectArgs args) {
+    ProjectInput in = validatedProject.get();
+    if (in == null) {
+      return false;
+    }
+    // only skip the validation of the first project created by the callback
+    validatedProject.remove();
+    return args.getProjectName().equals(in.name)
+        && args.newParent != null
+        && args.newParent.get().equals(in.parent)
+        && args.permissionsOnly == Boolean.TRUE.equals(in.permissionsOnly);
+  }
+
+  /** Release the slots of the projects of a validated tree that were not created. */
+  void releaseTree(Collection<String> names) {
+    names.forEach(subtreeCounters::release);
+  }
+
+  private static String userKey(CurrentUser user, String name) {
+    String userKey =
+        user.isIdentifiedUser()
+            ? Integer.toString(user.getAccountId().get())
+            : user.getLoggableName();
+    return userKey + "\n" + name;
+  }
+
+  /** Whether {@code user} owns {@code parent} or has been delegated project creation under it. */
+  boolean canCreateUnder(Project.NameKey parent, CurrentUser user) {
+    return isOwner(parent, user) || isInDelegatingGroup(parent, user);
+  }
+
+  private boolean isAdmin(CurrentUser user) {
+    try (TraceTimer timer = TraceContext.newTimer(TRACE_CHECK_ADMIN, Metadata.empty())) {
+      permissionBackend.user(user).check(GlobalPermission.ADMINISTRATE_SERVER);
+      return true;
+    } catch (AuthException | PermissionBackendException e) {
+      return false;
+    }
+  }
+
+  private boolean isOwner(Project.NameKey project, CurrentUser user) {
+    try (TraceTimer timer = TraceContext.newTimer(TRACE_CHECK_OWNER, projectMetadata(project))) {
+      permissionBackend.user(user).project(project).check(ProjectPermission.WRITE_CONFIG);
+    } catch (AuthException | PermissionBackendException noWriter) {
+      return isAdmin(user);
     }
     return true;
   }
 
+  private boolean needsOwnerGroup(Project.NameKey parent, CurrentUser user)
+      throws ValidationException {
+    return !isOwner(parent, user) && !configDisableGrantingOwnership(parent);
+  }
+
   private boolean configDisableGrantingOwnership(Project.NameKey parentCtrl)
       throws ValidationException {
     try {
-      return cfg.getFromProjectConfigWithInheritance(parentCtrl, pluginName)
-          .getBoolean(DISABLE_GRANTING_PROJECT_OWNERSHIP, false);
+      return policyCache.get(parentCtrl).isDisableGrantingProjectOwnership();
     } catch (NoSuchProjectException e) {
       log.error("Failed to check project config for {}: {}", parentCtrl.get(), e.getMessage(), e);
-      throw new ValidationException(AN_ERROR_OCCURRED_MSG);
+      throw violation(Rule.ERROR, AN_ERROR_OCCURRED_MSG);
     }
   }
 
   private AccountGroup.UUID createGroup(String name) throws ValidationException {
-    try {
-      GroupInfo groupInfo = null;
-      try {
-        groupInfo = groups.create(name).get();
-      } catch (ResourceConflictException e) {
-        // name already exists, make sure it is unique by adding a abbreviated
-        // sha1
-        String nameWithSha1 =
-            name
-                + "-"
-                + Hashing.sha256().hashString(name, Charsets.UTF_8).toString().substring(0, 7);
-        log.info(
-            "Failed to create group name {} because of a conflict: {}, trying to create {} instead",
-            name,
-            e.getMessage(),
-            nameWithSha1);
-        groupInfo = groups.create(nameWithSha1).get();
-      }
-      return AccountGroup.UUID.parse(groupInfo.id);
+    try (TraceTimer timer = TraceContext.newTimer(TRACE_CREATE_GROUP, groupMetadata(name))) {
+      return groupCreationCoalescer.create(name);
     } catch (RestApiException e) {
       log.error("Failed to create project {}: {}", name, e.getMessage(), e);
-      throw new ValidationException(AN_ERROR_OCCURRED_MSG);
+      throw violation(Rule.ERROR, AN_ERROR_OCCURRED_MSG);
     }
   }
 
   private void validateRootProject(String name, boolean permissionOnly) throws ValidationException {
+    validateRootProjectName(name);
+    if (!permissionOnly) {
+      log.debug("rejecting creation of {}: missing permissions only option", name);
+      throw violation(
+          Rule.ROOT_NOT_PERMISSIONS_ONLY,
+          String.format(REGULAR_PROJECT_NOT_ALLOWED_AS_ROOT_MSG, documentationUrl));
+    }
+    log.debug("allowing creation of root project {}", name);
+  }
+
+  private void validateRootProjectName(String name) throws ValidationException {
     log.debug("validating root project name {}", name);
     if (name.contains("/")) {
       log.debug("rejecting creation of {}: name contains slashes", name);
-      throw new ValidationException(
+      throw violation(
+          Rule.ROOT_NAME_SLASHES,
           String.format(
               ROOT_PROJECT_CANNOT_CONTAINS_SLASHES_MSG,
               name,
               allProjectsName.get(),
               documentationUrl));
     }
-    if (!permissionOnly) {
-      log.debug("rejecting creation of {}: missing permissions only option", name);
-      throw new ValidationException(
-          String.format(REGULAR_PROJECT_NOT_ALLOWED_AS_ROOT_MSG, documentationUrl));
-    }
-    log.debug("allowing creation of root project {}", name);
   }
 
-  private void validateProject(String name, Project.NameKey parentCtrl) throws ValidationException {
+  private void validateProject(
+      String name, Project.NameKey parentCtrl, CurrentUser user, QuotaCheck quotaCheck)
+      throws ValidationException {
+    validateParentPrefix(name, parentCtrl);
+    validateCanCreateUnder(name, parentCtrl, user);
+    validateQuotas(name, parentCtrl, quotaCheck);
+    log.debug("allowing creation of project {}", name);
+  }
+
+  private void validateParentPrefix(String name, Project.NameKey parentCtrl)
+      throws ValidationException {
     log.debug("validating name prefix of {}", name);
     String prefix = parentCtrl.get() + "/";
     if (!name.startsWith(prefix)) {
       log.debug("rejecting creation of {}: name is not starting with {}", name, prefix);
-      throw new ValidationException(
+      throw violation(
+          Rule.PARENT_NAME_PREFIX,
           String.format(PROJECT_MUST_START_WITH_PARENT_NAME_MSG, prefix + name, documentationUrl));
     }
-    if (!isOwner(parentCtrl) && !isInDelegatingGroup(parentCtrl)) {
+  }
+
+  private void validateCanCreateUnder(String name, Project.NameKey parentCtrl, CurrentUser user)
+      throws ValidationException {
+    if (!canCreateUnder(parentCtrl, user)) {
       log.debug("rejecting creation of {}: user is not owner of {}", name, parentCtrl.get());
-      throw new ValidationException(
+      throw violation(
+          Rule.NOT_OWNER,
           String.format(MUST_BE_OWNER_TO_CREATE_PROJECT_MSG, parentCtrl.get(), documentationUrl));
     }
-    log.debug("allowing creation of project {}", name);
   }
 
-  private boolean isInDelegatingGroup(Project.NameKey parentCtrl) {
+  /**
+   * @param policyProject project whose policy applies, the parent unless it is not created yet
+   * @param quotaCheck whether to reserve the slot of the project in the subtree counters
+   */
+  private void validateQuotas(String name, Project.NameKey policyProject, QuotaCheck quotaCheck)
+      throws ValidationException {
+    ParentPolicy policy;
     try {
-      Optional<GroupReference> groupReference =
-          cfg.getFromProjectConfigWithInheritance(parentCtrl, pluginName)
-              .getGroupReference(DELEGATE_PROJECT_CREATION_TO);
-      if (groupReference.isPresent()) {
-        GroupReference delegateProjectCreationTo = groupReference.get();
-        log.debug("delegateProjectCreationTo: {}", delegateProjectCreationTo);
-        GroupMembership effectiveGroups = self.get().getEffectiveGroups();
-        return effectiveGroups.contains(delegateProjectCreationTo.getUUID());
+      policy = policyCache.get(policyProject);
+    } catch (NoSuchProjectException e) {
+      log.error(
+          "Failed to check project config for {}: {}", policyProject.get(), e.getMessage(), e);
+      throw violation(Rule.ERROR, AN_ERROR_OCCURRED_MSG);
+    }
+    if (policy.getMaxDepth() > 0 && SubtreeCounters.getDepth(name) > policy.getMaxDepth()) {
+      log.debug("rejecting creation of {}: maximum depth reached", name);
+      throw violation(
+          Rule.MAX_DEPTH,
+          String.format(MAX_DEPTH_REACHED_MSG, policy.getMaxDepth(), documentationUrl));
+    }
+    SubtreeCounters.Reservation reservation =
+        quotaCheck == QuotaCheck.CHECK
+            ? subtreeCounters.check(name, policy.getMaxProjects(), policy.getMaxChildren())
+            : subtreeCounters.reserve(
+                name,
+                policy.getMaxProjects(),
+                policy.getMaxChildren(),
+                quotaCheck == QuotaCheck.RESERVE_UNTIL_RELEASED);
+    if (reservation == SubtreeCounters.Reservation.MAX_PROJECTS_REACHED) {
+      String root = SubtreeCounters.getRoot(name);
+      log.debug("rejecting creation of {}: maximum number of projects reached", name);
+      throw violation(
+          Rule.MAX_PROJECTS,
+          String.format(MAX_PROJECTS_REACHED_MSG, root, policy.getMaxProjects(), documentationUrl));
+    }
+    if (reservation == SubtreeCounters.Reservation.MAX_CHILDREN_REACHED) {
+      String parentName = SubtreeCounters.getParentName(name);
+      log.debug("rejecting creation of {}: maximum number of children reached", name);
+      throw violation(
+          Rule.MAX_CHILDREN,
+          String.format(
+              MAX_CHILDREN_REACHED_MSG, parentName, policy.getMaxChildren(), documentationUrl));
+    }
+  }
+
+  private boolean isInDelegatingGroup(Project.NameKey parentCtrl, CurrentUser user) {
+    try {
+      ParentPolicy policy;
+      try (TraceTimer timer =
+          TraceContext.newTimer(TRACE_LOAD_POLICY, projectMetadata(parentCtrl))) {
+        policy = policyCache.get(parentCtrl);
+      }
+      if (!policy.getDelegateProjectCreationTo().isEmpty()) {
+        log.debug("delegateProjectCreationTo: {}", policy.getDelegateProjectCreationTo());
+        return delegateGroups.isMemberOfAny(user, policy.getDelegateIds(delegateGroups));
       }
     } catch (NoSuchProjectException e) {
       log.error("isInDelegatingGroup with error ({}): {}", e.getClass().getName(), e.getMessage());
     }
     return false;
   }
+
+  private void audit(
+      String operation,
+      String decision,
+      CurrentUser user,
+      String name,
+      Project.NameKey parent,
+      String rule,
+      long start) {
+    auditLog.record(
+        operation,
+        decision,
+        user.getLoggableName(),
+        name,
+        parent != null ? parent.get() : null,
+        rule,
+        start);
+  }
+
+  private static Metadata projectMetadata(Project.NameKey project) {
+    return Metadata.builder().projectName(project.get()).build();
+  }
+
+  private static Metadata groupMetadata(String groupName) {
+    return Metadata.builder().groupName(groupName).build();
+  }
+
+  private static ValidationException violation(Rule rule, String message) {
+    return new RuleViolationException(rule, message);
+  }
+
+  private static String ruleOf(ValidationException e) {
+    return getRule(e).name().toLowerCase(Locale.US);
+  }
+
+  private static Rule getRule(ValidationException e) {
+    return e instanceof RuleViolationException ? ((RuleViolationException) e).rule : Rule.ERROR;
+  }
+
+  /** How the quotas of a project are checked. */
+  private enum QuotaCheck {
+    /** Only check the quotas, e.g. for an existing project. */
+    CHECK,
+    /** Reserve the slot of the project, released after a timeout if it is not created. */
+    RESERVE,
+    /** Reserve the slot of the project until it is created or explicitly released. */
+    RESERVE_UNTIL_RELEASED
+  }
+
+  /** Outcome of a validation, shared with the concurrent validations of the same project. */
+  private static class Outcome {
+    final String decision;
+    final ImmutableList<AccountGroup.UUID> ownerIds;
+    final ValidationException rejection;
+
+    Outcome(
+        String decision,
+        ImmutableList<AccountGroup.UUID> ownerIds,
+        ValidationException rejection) {
+      this.decision = decision;
+      this.ownerIds = ownerIds;
+      this.rejection = rejection;
+    }
+  }
+
+  /** Validation of a project by a user, followed by the concurrent creations of the project. */
+  private static class Flight {
+    final String userKey;
+    final Project.NameKey parent;
+    final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+    private volatile long expiresAt = Long.MAX_VALUE;
+
+    Flight(String userKey, Project.NameKey parent) {
+      this.userKey = userKey;
+      this.parent = parent;
+    }
+
+    boolean isSameCreation(Flight other) {
+      return userKey.equals(other.userKey) && Objects.equals(parent, other.parent);
+    }
+
+    void accept(Outcome accepted) {
+      expiresAt = System.currentTimeMillis() + FLIGHT_RETENTION_MS;
+      outcome.complete(accepted);
+    }
+
+    boolean isExpired() {
+      return System.currentTimeMillis() > expiresAt;
+    }
+  }
+
+  private static class RuleViolationException extends ValidationException {
+    private static final long serialVersionUID = 1L;
+
+    private final Rule rule;
+
+    RuleViolationException(Rule rule, String message) {
+      super(message);
+      this.rule = rule;
+    }
+  }
 }
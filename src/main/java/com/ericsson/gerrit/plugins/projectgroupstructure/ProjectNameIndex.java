@@ -0,0 +1,230 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorted in-memory index of the project names, loaded in the background by {@link Initializer} and
+ * then maintained from project created and deleted events.
+ *
+ * <p>Events received while the index is loaded are replayed once it is loaded, so that a project
+ * deleted meanwhile is not added back from the project list read before. Until then, names are
+ * read from the project list on each call.
+ *
+ * <p>Creations and deletions are broadcast to the other nodes, which re-read whether the project
+ * exists and update their index and {@link SubtreeCounters} accordingly.
+ */
+@Singleton
+class ProjectNameIndex implements NewProjectCreatedListener, ProjectDeletedListener {
+  private static final Logger log = LoggerFactory.getLogger(ProjectNameIndex.class);
+
+  private final ProjectCache projectCache;
+  private final SubtreeCounters subtreeCounters;
+  private final CacheInvalidator cacheInvalidator;
+  private final ConcurrentSkipListSet<String> names = new ConcurrentSkipListSet<>();
+  private final ConcurrentSkipListSet<String> roots = new ConcurrentSkipListSet<>();
+  // names containing slashes by parent name, the name before their last slash
+  private final ConcurrentMap<String, NavigableSet<String>> children = new ConcurrentHashMap<>();
+  // events received while loading, name mapped to whether the project was created; guarded by this
+  private List<Map.Entry<String, Boolean>> pending = new ArrayList<>();
+  private volatile boolean loaded;
+
+  @Inject
+  ProjectNameIndex(
+      ProjectCache projectCache,
+      SubtreeCounters subtreeCounters,
+      CacheInvalidator cacheInvalidator) {
+    this.projectCache = projectCache;
+    this.subtreeCounters = subtreeCounters;
+    this.cacheInvalidator = cacheInvalidator;
+    cacheInvalidator.register(CacheInvalidator.PROJECT_NAMES, this::reload);
+  }
+
+  /**
+   * Load the names of all the projects, then replay the events received meanwhile. Can be called
+   * again if it failed.
+   */
+  void load() {
+    if (loaded) {
+      return;
+    }
+    for (Project.NameKey project : projectCache.all()) {
+      if (add(project.get())) {
+        subtreeCounters.add(project.get());
+      }
+    }
+    synchronized (this) {
+      for (Map.Entry<String, Boolean> event : pending) {
+        update(event.getKey(), event.getValue());
+      }
+      pending = null;
+      loaded = true;
+    }
+    subtreeCounters.markLoaded();
+    log.debug("Loaded {} project names, {} roots", names.size(), roots.size());
+  }
+
+  @Override
+  public void onNewProjectCreated(NewProjectCreatedListener.Event event) {
+    onEvent(event.getProjectName(), true);
+  }
+
+  @Override
+  public void onProjectDeleted(ProjectDeletedListener.Event event) {
+    onEvent(event.getProjectName(), false);
+  }
+
+  private void onEvent(String name, boolean created) {
+    if (!defer(name, created)) {
+      update(name, created);
+    }
+    cacheInvalidator.broadcast(CacheInvalidator.PROJECT_NAMES, name);
+  }
+
+  /** Keep the event to replay it once loaded, return false if already loaded. */
+  private synchronized boolean defer(String name, boolean created) {
+    if (pending == null) {
+      return false;
+    }
+    pending.add(new AbstractMap.SimpleImmutableEntry<>(name, created));
+    return true;
+  }
+
+  private void update(String name, boolean created) {
+    if (created ? add(name) : remove(name)) {
+      if (created) {
+        subtreeCounters.add(name);
+      } else {
+        subtreeCounters.remove(name);
+      }
+    }
+  }
+
+  boolean contains(String name) {
+    if (!loaded) {
+      return projectCache.all().contains(Project.nameKey(name));
+    }
+    return names.contains(name);
+  }
+
+  /** All the project names starting with {@code prefix}, in order. */
+  NavigableSet<String> withPrefix(String prefix) {
+    if (!loaded) {
+      return fromProjectList(prefix, false);
+    }
+    return subSet(names, prefix);
+  }
+
+  /** The names not containing slashes and starting with {@code prefix}, in order. */
+  NavigableSet<String> rootsWithPrefix(String prefix) {
+    if (!loaded) {
+      return fromProjectList(prefix, true);
+    }
+    return subSet(roots, prefix);
+  }
+
+  /**
+   * The names {@code parent/<name>}, {@code <name>} not containing slashes, starting with {@code
+   * prefix}, in order.
+   */
+  NavigableSet<String> childrenWithPrefix(String parent, String prefix) {
+    if (!loaded) {
+      NavigableSet<String> result = fromProjectList(prefix, false);
+      result.removeIf(name -> !parent.equals(SubtreeCounters.getParentName(name)));
+      return result;
+    }
+    NavigableSet<String> names = children.get(parent);
+    return names != null ? subSet(names, prefix) : new TreeSet<>();
+  }
+
+  private NavigableSet<String> fromProjectList(String prefix, boolean rootsOnly) {
+    NavigableSet<String> result = new TreeSet<>();
+    for (Project.NameKey project :
+        projectCache
+            .all()
+            .subSet(
+                Project.nameKey(prefix),
+                true,
+                Project.nameKey(prefix + Character.MAX_VALUE),
+                false)) {
+      if (!rootsOnly || project.get().indexOf('/') < 0) {
+        result.add(project.get());
+      }
+    }
+    return result;
+  }
+
+  private static NavigableSet<String> subSet(NavigableSet<String> set, String prefix) {
+    return set.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+  }
+
+  /** Re-read whether a project created or deleted on another node exists. */
+  private void reload(String name) {
+    Project.NameKey project = Project.nameKey(name);
+    projectCache.evict(project);
+    boolean exists = projectCache.get(project).isPresent();
+    if (!defer(name, exists)) {
+      update(name, exists);
+    }
+  }
+
+  private boolean add(String name) {
+    String parent = SubtreeCounters.getParentName(name);
+    if (parent == null) {
+      roots.add(name);
+    } else {
+      children.compute(
+          parent,
+          (k, siblings) -> {
+            NavigableSet<String> set = siblings != null ? siblings : new ConcurrentSkipListSet<>();
+            set.add(name);
+            return set;
+          });
+    }
+    return names.add(name);
+  }
+
+  private boolean remove(String name) {
+    String parent = SubtreeCounters.getParentName(name);
+    if (parent == null) {
+      roots.remove(name);
+    } else {
+      children.computeIfPresent(
+          parent,
+          (k, siblings) -> {
+            siblings.remove(name);
+            return siblings.isEmpty() ? null : siblings;
+          });
+    }
+    return names.remove(name);
+  }
+}
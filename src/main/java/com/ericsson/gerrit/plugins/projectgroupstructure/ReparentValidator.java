@@ -0,0 +1,117 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.config.AllProjectsNameProvider;
+import com.google.gerrit.server.events.CommitReceivedEvent;
+import com.google.gerrit.server.git.validators.CommitValidationException;
+import com.google.gerrit.server.git.validators.CommitValidationListener;
+import com.google.gerrit.server.git.validators.CommitValidationMessage;
+import com.google.gerrit.server.project.ProjectConfig;
+import com.google.gerrit.server.validators.ValidationException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enforce the project group structure when the parent of an existing project is changed by
+ * pushing to its refs/meta/config branch.
+ *
+ * <p>Only the project.config blob of the pushed commit is read; commits that do not change the
+ * {@code access.inheritFrom} value are accepted without further checks.
+ */
+@Singleton
+class ReparentValidator implements CommitValidationListener {
+  private static final Logger log = LoggerFactory.getLogger(ReparentValidator.class);
+
+  private static final String KEY_INHERIT_FROM = "inheritFrom";
+
+  private final ProjectCreationValidator projectCreationValidator;
+  private final AllProjectsNameProvider allProjectsName;
+
+  @Inject
+  ReparentValidator(
+      ProjectCreationValidator projectCreationValidator, AllProjectsNameProvider allProjectsName) {
+    this.projectCreationValidator = projectCreationValidator;
+    this.allProjectsName = allProjectsName;
+  }
+
+  @Override
+  public List<CommitValidationMessage> onCommitReceived(CommitReceivedEvent receiveEvent)
+      throws CommitValidationException {
+    if (!RefNames.REFS_CONFIG.equals(receiveEvent.refName)) {
+      return Collections.emptyList();
+    }
+    Project.NameKey project = receiveEvent.project.getNameKey();
+    if (allProjectsName.get().equals(project)) {
+      return Collections.emptyList();
+    }
+
+    Project.NameKey newParent;
+    try {
+      newParent = readParent(receiveEvent.revWalk.getObjectReader(), receiveEvent.commit);
+    } catch (IOException | ConfigInvalidException e) {
+      // Invalid project.config files are rejected by Gerrit itself, nothing
+      // to enforce here.
+      log.debug("Cannot read parent of {}: {}", project.get(), e.getMessage());
+      return Collections.emptyList();
+    }
+    if (newParent.equals(currentParent(receiveEvent.project))) {
+      return Collections.emptyList();
+    }
+
+    try {
+      projectCreationValidator.validateNewParent(project.get(), newParent, receiveEvent.user);
+    } catch (ValidationException e) {
+      log.debug(
+          "rejecting new parent {} of {}: {}", newParent.get(), project.get(), e.getMessage());
+      throw new CommitValidationException(e.getMessage());
+    }
+    return Collections.emptyList();
+  }
+
+  private Project.NameKey currentParent(Project project) {
+    Project.NameKey parent = project.getParent();
+    return parent != null ? parent : allProjectsName.get();
+  }
+
+  private Project.NameKey readParent(ObjectReader reader, RevCommit commit)
+      throws IOException, ConfigInvalidException {
+    try (TreeWalk tw = TreeWalk.forPath(reader, ProjectConfig.PROJECT_CONFIG, commit.getTree())) {
+      if (tw == null) {
+        return allProjectsName.get();
+      }
+      Config projectConfig = new Config();
+      projectConfig.fromText(
+          RawParseUtils.decode(reader.open(tw.getObjectId(0), Constants.OBJ_BLOB).getBytes()));
+      String parent = projectConfig.getString(ProjectConfig.ACCESS, null, KEY_INHERIT_FROM);
+      return Strings.isNullOrEmpty(parent) ? allProjectsName.get() : Project.nameKey(parent);
+    }
+  }
+}
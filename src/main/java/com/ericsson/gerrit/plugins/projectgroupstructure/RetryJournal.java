@@ -0,0 +1,432 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of the default access rights still to be applied to new root projects.
+ *
+ * <p>A root project is added to the journal before its template is applied and removed once it is
+ * applied, so failed applications, including those interrupted by a restart, are retried. Records
+ * are appended to <review_site>/data/project-group-structure/retry.journal, one JSON object per
+ * line, and written and synced to disk in batches. Adding a project waits for the batch holding its
+ * record to be synced, so that the record is on disk before the template is applied, the projects
+ * created concurrently sharing the same write. A batch that fails to be written, e.g. because the
+ * writing thread was interrupted, is written again with the next one, after dropping its partially
+ * written records. Pending applications are retried when the plugin starts and then periodically
+ * with an exponential backoff, until they succeed or are given up after {@link #MAX_ATTEMPTS}
+ * attempts. The journal is rewritten with the pending applications only once it mostly contains
+ * records that no longer matter.
+ */
+@Singleton
+class RetryJournal implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(RetryJournal.class);
+
+  static final String JOURNAL_FILE = "retry.journal";
+
+  static final int MAX_ATTEMPTS = 20;
+
+  private static final String ADD = "add";
+  private static final String REMOVE = "remove";
+
+  private static final long FLUSH_INTERVAL_MS = 100;
+  private static final long REPLAY_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+  private static final long MIN_BACKOFF_MS = TimeUnit.MINUTES.toMillis(1);
+  private static final long MAX_BACKOFF_MS = TimeUnit.HOURS.toMillis(1);
+
+  private final Provider<DefaultAccessRights> defaultAccessRights;
+  private final WorkQueue workQueue;
+  private final Path file;
+  private final Gson gson = OutputFormat.JSON_COMPACT.newGson();
+
+  // guarded by this
+  private final Map<String, Entry> pending = new LinkedHashMap<>();
+  private final List<Entry> unflushed = new ArrayList<>();
+  // number of records ever added to unflushed
+  private long appended;
+  private int obsolete;
+
+  // guarded by fileLock, taken before this when both are needed
+  private final Object fileLock = new Object();
+  private FileChannel channel;
+  // number of the last record written and synced
+  private long synced;
+  // size of the journal before a failed write, to drop its partially written records
+  private long writtenSize = -1;
+
+  private ScheduledExecutorService executor;
+
+  @Inject
+  RetryJournal(
+      Provider<DefaultAccessRights> defaultAccessRights,
+      WorkQueue workQueue,
+      @PluginData Path dataDir) {
+    this.defaultAccessRights = defaultAccessRights;
+    this.workQueue = workQueue;
+    this.file = dataDir.resolve(JOURNAL_FILE);
+  }
+
+  /**
+   * Record that a template is about to be applied to a root project, returning once the record is
+   * synced to disk.
+   *
+   * @param project name of the root project
+   * @param template name of the template
+   * @param creator user name of the user who created the project
+   */
+  void add(String project, String template, String creator) {
+    Entry entry = new Entry();
+    entry.op = ADD;
+    entry.project = project;
+    entry.template = template;
+    entry.creator = creator;
+    entry.nextAttempt = System.currentTimeMillis() + MIN_BACKOFF_MS;
+    long record;
+    synchronized (this) {
+      if (pending.put(project, entry) != null) {
+        obsolete++;
+      }
+      record = append(entry);
+    }
+    synchronized (fileLock) {
+      // the record may have been written with the batch of a concurrent call
+      if (synced >= record || flush()) {
+        return;
+      }
+      // e.g. the channel was closed by an interrupt of this thread, write again uninterrupted
+      boolean interrupted = Thread.interrupted();
+      try {
+        if (!flush()) {
+          log.error(
+              "Failed to sync the record of {} to retry journal {}, its default access rights will"
+                  + " only be retried until the plugin is stopped unless a later write succeeds",
+              project,
+              file);
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /** Record that the template was applied to a root project. */
+  synchronized void remove(String project) {
+    Entry entry = pending.remove(project);
+    if (entry != null) {
+      complete(entry);
+    }
+  }
+
+  synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  private void complete(Entry entry) {
+    Entry removed = new Entry();
+    removed.op = REMOVE;
+    removed.project = entry.project;
+    append(removed);
+    obsolete += 2;
+  }
+
+  private long append(Entry entry) {
+    unflushed.add(entry);
+    return ++appended;
+  }
+
+  @Override
+  public void start() {
+    synchronized (fileLock) {
+      try {
+        load();
+        compact();
+      } catch (IOException e) {
+        log.error(
+            "Failed to open retry journal {}, failed applications of default access rights will"
+                + " only be retried until the plugin is stopped: {}",
+            file,
+            e.getMessage(),
+            e);
+      }
+    }
+    executor = workQueue.createQueue(2, "ProjectGroupStructure-RetryJournal");
+    executor.scheduleWithFixedDelay(
+        this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, MILLISECONDS);
+    executor.scheduleWithFixedDelay(this::replay, 0, REPLAY_INTERVAL_MS, MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    synchronized (fileLock) {
+      flush();
+      close();
+    }
+  }
+
+  private void load() throws IOException {
+    if (!Files.exists(file)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      for (String line : Files.readAllLines(file, UTF_8)) {
+        Entry entry;
+        try {
+          entry = gson.fromJson(line, Entry.class);
+        } catch (JsonParseException e) {
+          // last line of a batch interrupted by a crash
+          log.warn("Ignoring invalid retry journal record: {}", line);
+          continue;
+        }
+        if (entry == null || entry.project == null) {
+          continue;
+        }
+        if (ADD.equals(entry.op)) {
+          entry.nextAttempt = now;
+          pending.put(entry.project, entry);
+        } else {
+          pending.remove(entry.project);
+        }
+      }
+      log.info("{} pending applications of default access rights in retry journal", pending.size());
+    }
+  }
+
+  /**
+   * Write and sync the records added since the last flush.
+   *
+   * @return whether the records were synced, otherwise they are kept to be written with the next
+   *     batch
+   */
+  private boolean flush() {
+    synchronized (fileLock) {
+      List<Entry> batch;
+      long last;
+      synchronized (this) {
+        if (unflushed.isEmpty()) {
+          return true;
+        }
+        batch = new ArrayList<>(unflushed);
+        unflushed.clear();
+        last = appended;
+      }
+      try {
+        if (channel == null) {
+          open();
+        }
+        long size = channel.size();
+        try {
+          write(channel, batch);
+          channel.force(false);
+        } catch (IOException e) {
+          writtenSize = size;
+          throw e;
+        }
+        synced = last;
+        return true;
+      } catch (IOException e) {
+        log.error("Failed to write retry journal {}: {}", file, e.getMessage(), e);
+        synchronized (this) {
+          unflushed.addAll(0, batch);
+        }
+        // reopened by the next flush, as a channel closed by an interrupt cannot be used again
+        close();
+        return false;
+      }
+    }
+  }
+
+  private void open() throws IOException {
+    channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    if (writtenSize >= 0) {
+      try {
+        channel.truncate(writtenSize);
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+      writtenSize = -1;
+    }
+  }
+
+  private void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.error("Failed to close retry journal {}: {}", file, e.getMessage(), e);
+      }
+      channel = null;
+    }
+  }
+
+  /** Rewrite the journal with the pending applications only. */
+  private void compact() throws IOException {
+    synchronized (fileLock) {
+      List<Entry> entries;
+      long last;
+      synchronized (this) {
+        entries = new ArrayList<>(pending.values());
+        unflushed.clear();
+        last = appended;
+        obsolete = 0;
+      }
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (FileChannel out =
+          FileChannel.open(
+              tmp,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        write(out, entries);
+        out.force(false);
+      }
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      writtenSize = -1;
+      open();
+      synced = last;
+    }
+  }
+
+  private void write(FileChannel out, List<Entry> entries) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (Entry entry : entries) {
+      lines.append(gson.toJson(entry)).append('\n');
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(UTF_8));
+    while (bytes.hasRemaining()) {
+      out.write(bytes);
+    }
+  }
+
+  private void replay() {
+    List<Entry> due = new ArrayList<>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (Entry entry : pending.values()) {
+        if (entry.nextAttempt <= now) {
+          due.add(entry);
+        }
+      }
+    }
+    for (Entry entry : due) {
+      try {
+        defaultAccessRights.get().retry(entry.project, entry.template, entry.creator);
+        completed(entry);
+      } catch (Exception e) {
+        failed(entry, e);
+      }
+    }
+
+    boolean shouldCompact;
+    synchronized (this) {
+      shouldCompact = obsolete > 0 && obsolete >= pending.size();
+    }
+    if (shouldCompact) {
+      try {
+        compact();
+      } catch (IOException e) {
+        log.error("Failed to compact retry journal {}: {}", file, e.getMessage(), e);
+      }
+    }
+  }
+
+  private synchronized void completed(Entry entry) {
+    // the project may have been added again while its template was applied
+    if (pending.get(entry.project) == entry) {
+      pending.remove(entry.project);
+      complete(entry);
+    }
+  }
+
+  private synchronized void failed(Entry entry, Exception e) {
+    if (pending.get(entry.project) != entry) {
+      return;
+    }
+    entry.attempts++;
+    if (entry.attempts >= MAX_ATTEMPTS) {
+      log.error(
+          "Giving up setting default access rights of {} after {} attempts, they have to be set"
+              + " manually: {}",
+          entry.project,
+          entry.attempts,
+          e.getMessage(),
+          e);
+      pending.remove(entry.project);
+      complete(entry);
+      return;
+    }
+    long backoff = Math.min(MIN_BACKOFF_MS << Math.min(entry.attempts, 16), MAX_BACKOFF_MS);
+    entry.nextAttempt = System.currentTimeMillis() + backoff;
+    log.error(
+        "Failed to set default access rights of {} (attempt {}), retrying in {}s: {}",
+        entry.project,
+        entry.attempts,
+        MILLISECONDS.toSeconds(backoff),
+        e.getMessage(),
+        e);
+    // persist the number of attempts
+    append(entry);
+    obsolete++;
+  }
+
+  static class Entry {
+    String op;
+    String project;
+    String template;
+    String creator;
+    int attempts;
+    transient long nextAttempt;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ *
+ * <p>Each slot carries a sequence number telling whether it is free for the producer claiming
+ * position {@code n} ({@code sequence == n}) or holds an element for the consumer ({@code sequence
+ * == n + 1}). Producers never block: {@link #offer(Object)} returns false when the buffer is full.
+ */
+class RingBuffer<T> {
+  private final int mask;
+  private final AtomicReferenceArray<T> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  // only accessed by the consumer
+  private long head;
+
+  /** @param capacity rounded up to the next power of 2 */
+  RingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    mask = size - 1;
+    elements = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  boolean offer(T element) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) (position & mask);
+      long difference = sequences.get(index) - position;
+      if (difference < 0) {
+        return false;
+      }
+      if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+        elements.set(index, element);
+        sequences.set(index, position + 1);
+        return true;
+      }
+    }
+  }
+
+  /** Move up to {@code max} elements to {@code out}; must only be called by the consumer. */
+  int drainTo(List<T> out, int max) {
+    int drained = 0;
+    while (drained < max) {
+      int index = (int) (head & mask);
+      if (sequences.get(index) != head + 1) {
+        break;
+      }
+      out.add(elements.get(index));
+      elements.set(index, null);
+      sequences.set(index, head + mask + 1);
+      head++;
+      drained++;
+    }
+    return drained;
+  }
+}
@@ -0,0 +1,214 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.util.ArrayList;
+import java.util.List;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Search the projects by their place in the structure, e.g. {@code pgs-root:orgA pgs-depth:>3} or
+ * {@code pgs-delegated:true}.
+ *
+ * <p>Projects are read in name order from {@link ProjectNameIndex}, or from {@link
+ * DelegationIndex} when searching for delegating projects, and only the visible ones are returned,
+ * a page at a time.
+ */
+class SearchStructure implements RestReadView<ConfigResource> {
+  static final String ROOT = "pgs-root";
+  static final String DEPTH = "pgs-depth";
+  static final String DELEGATED = "pgs-delegated";
+
+  private static final int DEFAULT_LIMIT = 100;
+  private static final int MAX_LIMIT = 500;
+
+  private final ProjectNameIndex projectNameIndex;
+  private final DelegationIndex delegationIndex;
+  private final PermissionBackend permissionBackend;
+  private final Provider<CurrentUser> self;
+
+  @Option(
+      name = "--query",
+      aliases = {"-q"},
+      metaVar = "QUERY",
+      usage = "pgs-root:, pgs-depth: and pgs-delegated: operators, all of them must match")
+  private String query;
+
+  @Option(
+      name = "--limit",
+      aliases = {"-n"},
+      metaVar = "CNT",
+      usage = "maximum number of projects to return")
+  private int limit = DEFAULT_LIMIT;
+
+  @Option(
+      name = "--start",
+      aliases = {"-S"},
+      metaVar = "CNT",
+      usage = "number of projects to skip")
+  private int start;
+
+  @Inject
+  SearchStructure(
+      ProjectNameIndex projectNameIndex,
+      DelegationIndex delegationIndex,
+      PermissionBackend permissionBackend,
+      Provider<CurrentUser> self) {
+    this.projectNameIndex = projectNameIndex;
+    this.delegationIndex = delegationIndex;
+    this.permissionBackend = permissionBackend;
+    this.self = self;
+  }
+
+  @Override
+  public Response<List<ProjectStructureInfo>> apply(ConfigResource resource)
+      throws BadRequestException, PermissionBackendException {
+    Query q = Query.parse(query);
+    int max = Math.max(1, Math.min(limit, MAX_LIMIT));
+    String prefix = q.root == null ? "" : q.root;
+    Iterable<String> candidates =
+        Boolean.TRUE.equals(q.delegated) && delegationIndex.isLoaded()
+            ? delegationIndex.withPrefix(prefix)
+            : projectNameIndex.withPrefix(prefix);
+
+    PermissionBackend.WithUser withUser = permissionBackend.user(self.get());
+    List<ProjectStructureInfo> projects = new ArrayList<>();
+    int skipped = 0;
+    for (String name : candidates) {
+      if (!q.matchesName(name)) {
+        continue;
+      }
+      if (q.delegated != null && q.delegated != delegationIndex.isDelegating(name)) {
+        continue;
+      }
+      if (!projectNameIndex.contains(name)
+          || !withUser.project(Project.nameKey(name)).test(ProjectPermission.ACCESS)) {
+        continue;
+      }
+      if (skipped < start) {
+        skipped++;
+        continue;
+      }
+      if (projects.size() == max) {
+        projects.get(max - 1)._moreProjects = true;
+        break;
+      }
+      projects.add(
+          new ProjectStructureInfo(
+              name, q.delegated != null ? q.delegated : delegationIndex.isDelegating(name)));
+    }
+    return Response.ok(projects);
+  }
+
+  static class Query {
+    String root;
+    int minDepth;
+    int maxDepth = Integer.MAX_VALUE;
+    Boolean delegated;
+
+    static Query parse(String query) throws BadRequestException {
+      if (Strings.isNullOrEmpty(query) || query.trim().isEmpty()) {
+        throw new BadRequestException("query is required");
+      }
+      Query q = new Query();
+      for (String term : Splitter.on(' ').omitEmptyStrings().trimResults().split(query)) {
+        int colon = term.indexOf(':');
+        String operator = colon < 0 ? term : term.substring(0, colon);
+        String value = colon < 0 ? "" : term.substring(colon + 1);
+        if (value.isEmpty()) {
+          throw new BadRequestException(String.format("Missing value in %s", term));
+        }
+        switch (operator) {
+          case ROOT:
+            if (value.indexOf('/') >= 0) {
+              throw new BadRequestException(String.format("%s is not a root project", value));
+            }
+            q.root = value;
+            break;
+          case DEPTH:
+            q.parseDepth(value);
+            break;
+          case DELEGATED:
+            if (!"true".equals(value) && !"false".equals(value)) {
+              throw new BadRequestException(String.format("%s must be true or false", term));
+            }
+            q.delegated = Boolean.valueOf(value);
+            break;
+          default:
+            throw new BadRequestException(String.format("Unsupported operator %s", operator));
+        }
+      }
+      return q;
+    }
+
+    private void parseDepth(String value) throws BadRequestException {
+      String number = value.replaceFirst("^[<>]=?", "");
+      int depth;
+      try {
+        depth = Integer.parseInt(number);
+      } catch (NumberFormatException e) {
+        throw new BadRequestException(String.format("Invalid %s value %s", DEPTH, value));
+      }
+      if (value.startsWith(">=")) {
+        minDepth = Math.max(minDepth, depth);
+      } else if (value.startsWith(">")) {
+        minDepth = Math.max(minDepth, depth + 1);
+      } else if (value.startsWith("<=")) {
+        maxDepth = Math.min(maxDepth, depth);
+      } else if (value.startsWith("<")) {
+        maxDepth = Math.min(maxDepth, depth - 1);
+      } else {
+        minDepth = Math.max(minDepth, depth);
+        maxDepth = Math.min(maxDepth, depth);
+      }
+    }
+
+    boolean matchesName(String name) {
+      if (root != null && !root.equals(SubtreeCounters.getRoot(name))) {
+        return false;
+      }
+      int depth = SubtreeCounters.getDepth(name);
+      return depth >= minDepth && depth <= maxDepth;
+    }
+  }
+
+  static class ProjectStructureInfo {
+    String name;
+    String root;
+    int depth;
+    boolean delegated;
+    Boolean _moreProjects;
+
+    ProjectStructureInfo(String name, boolean delegated) {
+      this.name = name;
+      this.root = SubtreeCounters.getRoot(name);
+      this.depth = SubtreeCounters.getDepth(name);
+      this.delegated = delegated;
+    }
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live counters of the number of projects per root and per parent name.
+ *
+ * <p>The structure enforced by this plugin is reflected in the project names, so the counters are
+ * derived from names only: all the projects whose name starts with {@code root/} are in the subtree
+ * of {@code root} and the direct children of {@code a/b} are the {@code a/b/<name>} projects. They
+ * are maintained by {@link ProjectNameIndex}, from the project list when it is loaded in the
+ * background and then from project created and deleted events. Until then, the projects are
+ * counted from the project list on each call.
+ *
+ * <p>Since projects are only counted once created, the quotas are enforced by reserving the slot of
+ * each project being created, see {@link #reserve}.
+ */
+@Singleton
+class SubtreeCounters {
+  // time after which the reservation of a project whose creation was not reported is released
+  private static final long RESERVATION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+  /** Result of a reservation. */
+  enum Reservation {
+    RESERVED,
+    MAX_PROJECTS_REACHED,
+    MAX_CHILDREN_REACHED
+  }
+
+  private final ProjectCache projectCache;
+  private final ConcurrentMap<String, Integer> subtreeSizes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Integer> childCounts = new ConcurrentHashMap<>();
+  // projects being created, mapped to when their reservation expires; guarded by this
+  private final Map<String, Long> reservations = new HashMap<>();
+  private volatile boolean loaded;
+
+  @Inject
+  SubtreeCounters(ProjectCache projectCache) {
+    this.projectCache = projectCache;
+  }
+
+  /** Called by {@link ProjectNameIndex} once all the existing projects have been added. */
+  void markLoaded() {
+    loaded = true;
+  }
+
+  /** Number of projects under {@code root}, not including the root itself. */
+  int getSubtreeSize(String root) {
+    if (!loaded) {
+      return withPrefix(root + "/").size();
+    }
+    return get(subtreeSizes, root);
+  }
+
+  /** Number of projects named {@code parent/<name>}, {@code <name>} not containing slashes. */
+  int getChildCount(String parent) {
+    if (!loaded) {
+      int depth = getDepth(parent) + 1;
+      return (int)
+          withPrefix(parent + "/").stream().filter(p -> getDepth(p.get()) == depth).count();
+    }
+    return get(childCounts, parent);
+  }
+
+  /**
+   * Reserve the slot of {@code name}, a project about to be created, unless this would exceed the
+   * maximum number of projects under its root or of children of its parent, {@code 0} meaning no
+   * limit. The check and the reservation are atomic, so concurrent creations cannot exceed the
+   * limits together. The reservation is released once the project is created, by {@link #release}
+   * if its creation fails, or after a timeout unless {@code untilReleased}, for the failures that
+   * are not reported.
+   */
+  synchronized Reservation reserve(
+      String name, int maxProjects, int maxChildren, boolean untilReleased) {
+    Reservation reservation = check(name, maxProjects, maxChildren);
+    if (reservation == Reservation.RESERVED) {
+      reservations.merge(
+          name,
+          untilReleased ? Long.MAX_VALUE : System.currentTimeMillis() + RESERVATION_TIMEOUT_MS,
+          Math::max);
+    }
+    return reservation;
+  }
+
+  /** Check the limits as {@link #reserve} does, without reserving the slot of {@code name}. */
+  synchronized Reservation check(String name, int maxProjects, int maxChildren) {
+    String parent = getParentName(name);
+    if (parent == null || reservations.containsKey(name)) {
+      return Reservation.RESERVED;
+    }
+    expireReservations();
+    String root = getRoot(name);
+    int reservedInRoot = 0;
+    int reservedChildren = 0;
+    for (String reserved : reservations.keySet()) {
+      if (root.equals(getRoot(reserved))) {
+        reservedInRoot++;
+        if (parent.equals(getParentName(reserved))) {
+          reservedChildren++;
+        }
+      }
+    }
+    if (maxProjects > 0 && getSubtreeSize(root) + reservedInRoot >= maxProjects) {
+      return Reservation.MAX_PROJECTS_REACHED;
+    }
+    if (maxChildren > 0 && getChildCount(parent) + reservedChildren >= maxChildren) {
+      return Reservation.MAX_CHILDREN_REACHED;
+    }
+    return Reservation.RESERVED;
+  }
+
+  /** Release the reservation of {@code name}, e.g. since it failed to be created. */
+  synchronized void release(String name) {
+    reservations.remove(name);
+  }
+
+  private void expireReservations() {
+    long now = System.currentTimeMillis();
+    for (Iterator<Map.Entry<String, Long>> it = reservations.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<String, Long> reservation = it.next();
+      // until loaded, created projects are counted from the project list
+      if (reservation.getValue() < now
+          || (!loaded && projectCache.all().contains(Project.nameKey(reservation.getKey())))) {
+        it.remove();
+      }
+    }
+  }
+
+  static String getRoot(String name) {
+    int slash = name.indexOf('/');
+    return slash < 0 ? name : name.substring(0, slash);
+  }
+
+  static String getParentName(String name) {
+    int slash = name.lastIndexOf('/');
+    return slash < 0 ? null : name.substring(0, slash);
+  }
+
+  static int getDepth(String name) {
+    int depth = 0;
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) == '/') {
+        depth++;
+      }
+    }
+    return depth;
+  }
+
+  void add(String name) {
+    String parent = getParentName(name);
+    if (parent != null) {
+      subtreeSizes.merge(getRoot(name), 1, Integer::sum);
+      childCounts.merge(parent, 1, Integer::sum);
+      release(name);
+    }
+  }
+
+  void remove(String name) {
+    String parent = getParentName(name);
+    if (parent != null) {
+      decrement(subtreeSizes, getRoot(name));
+      decrement(childCounts, parent);
+    }
+  }
+
+  private NavigableSet<Project.NameKey> withPrefix(String prefix) {
+    return projectCache
+        .all()
+        .subSet(
+            Project.nameKey(prefix), true, Project.nameKey(prefix + Character.MAX_VALUE), false);
+  }
+
+  private static int get(ConcurrentMap<String, Integer> counters, String key) {
+    Integer counter = counters.get(key);
+    return counter == null ? 0 : counter;
+  }
+
+  private static void decrement(ConcurrentMap<String, Integer> counters, String key) {
+    counters.computeIfPresent(key, (k, counter) -> counter > 1 ? counter - 1 : null);
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Suggest, for a partial project name, the root projects the caller may create projects under and
+ * the existing projects starting with that name.
+ */
+class SuggestParents implements RestReadView<ConfigResource> {
+  private static final int DEFAULT_LIMIT = 10;
+  private static final int MAX_LIMIT = 100;
+  // upper bound of projects checked for permissions per request
+  private static final int MAX_CHECKED_PROJECTS = 500;
+
+  private final ProjectNameIndex projectNameIndex;
+  private final CreatePermissionCache createPermissionCache;
+  private final Provider<CurrentUser> self;
+
+  @Option(
+      name = "--query",
+      aliases = {"-q"},
+      metaVar = "QUERY",
+      usage = "beginning of the name of the project to create")
+  private String query;
+
+  @Option(
+      name = "--limit",
+      aliases = {"-n"},
+      metaVar = "CNT",
+      usage = "maximum number of parents and siblings to return")
+  private int limit = DEFAULT_LIMIT;
+
+  @Inject
+  SuggestParents(
+      ProjectNameIndex projectNameIndex,
+      CreatePermissionCache createPermissionCache,
+      Provider<CurrentUser> self) {
+    this.projectNameIndex = projectNameIndex;
+    this.createPermissionCache = createPermissionCache;
+    this.self = self;
+  }
+
+  @Override
+  public Response<SuggestionInfo> apply(ConfigResource resource) throws AuthException {
+    CurrentUser user = self.get();
+    if (!user.isIdentifiedUser()) {
+      throw new AuthException("Authentication required");
+    }
+    SuggestionInfo info = new SuggestionInfo();
+    info.parents = new ArrayList<>();
+    info.siblings = new ArrayList<>();
+    if (Strings.isNullOrEmpty(query)) {
+      return Response.ok(info);
+    }
+    int max = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+    int slash = query.indexOf('/');
+    if (slash < 0) {
+      int checkedRoots = 0;
+      for (String root : projectNameIndex.rootsWithPrefix(query)) {
+        if (info.parents.size() >= max || checkedRoots++ >= MAX_CHECKED_PROJECTS) {
+          break;
+        }
+        addIfAllowed(info.parents, root, user);
+      }
+    } else {
+      String root = query.substring(0, slash);
+      if (projectNameIndex.contains(root)) {
+        addIfAllowed(info.parents, root, user);
+      }
+    }
+
+    // siblings are the projects starting with the query and having the same
+    // parent as the project being typed
+    String parent = SubtreeCounters.getParentName(query);
+    NavigableSet<String> siblings =
+        parent == null
+            ? projectNameIndex.rootsWithPrefix(query)
+            : projectNameIndex.childrenWithPrefix(parent, query);
+    int checked = 0;
+    for (String name : siblings) {
+      if (info.siblings.size() >= max || checked++ >= MAX_CHECKED_PROJECTS) {
+        break;
+      }
+      if (createPermissionCache.canAccess(Project.nameKey(name), user)) {
+        info.siblings.add(name);
+      }
+    }
+    return Response.ok(info);
+  }
+
+  private void addIfAllowed(List<String> parents, String root, CurrentUser user) {
+    if (createPermissionCache.canCreateUnder(Project.nameKey(root), user)) {
+      parents.add(root);
+    }
+  }
+
+  static class SuggestionInfo {
+    List<String> parents;
+    List<String> siblings;
+  }
+}
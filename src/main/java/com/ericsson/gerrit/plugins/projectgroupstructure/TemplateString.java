@@ -0,0 +1,116 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Map;
+
+/**
+ * String of a template containing ${name} variables.
+ *
+ * <p>The string is split once, when the template is loaded, into literal and variable segments so
+ * that rendering it is a single pass appending the segments. Variables that are not known by this
+ * plugin, e.g. ${username} in ref patterns which is expanded by Gerrit, are kept as literals.
+ */
+class TemplateString {
+  static final String PROJECT = "project";
+  static final String ROOT = "root";
+  static final String CREATOR = "creator";
+
+  private static final ImmutableSet<String> VARIABLES = ImmutableSet.of(PROJECT, ROOT, CREATOR);
+
+  private final String template;
+  // literals.get(i) comes before variables.get(i), the last literal ends the string
+  private final ImmutableList<String> literals;
+  private final ImmutableList<String> variables;
+
+  static TemplateString parse(String template) {
+    ImmutableList.Builder<String> literals = ImmutableList.builder();
+    ImmutableList.Builder<String> variables = ImmutableList.builder();
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < template.length()) {
+      int start = template.indexOf("${", i);
+      int end = start < 0 ? -1 : template.indexOf('}', start + 2);
+      if (end < 0) {
+        break;
+      }
+      literal.append(template, i, start);
+      String name = template.substring(start + 2, end);
+      if (VARIABLES.contains(name)) {
+        literals.add(literal.toString());
+        literal.setLength(0);
+        variables.add(name);
+      } else {
+        literal.append(template, start, end + 1);
+      }
+      i = end + 1;
+    }
+    literal.append(template, i, template.length());
+    literals.add(literal.toString());
+    return new TemplateString(template, literals.build(), variables.build());
+  }
+
+  private TemplateString(
+      String template, ImmutableList<String> literals, ImmutableList<String> variables) {
+    this.template = template;
+    this.literals = literals;
+    this.variables = variables;
+  }
+
+  /**
+   * Render the string.
+   *
+   * @param values values of the variables
+   * @param escapeRegex whether to escape the values to use them in a regular expression
+   * @param buffer buffer to render into, cleared first
+   * @return the rendered string
+   */
+  String render(Map<String, String> values, boolean escapeRegex, StringBuilder buffer) {
+    if (variables.isEmpty()) {
+      return template;
+    }
+    buffer.setLength(0);
+    for (int i = 0; i < variables.size(); i++) {
+      buffer.append(literals.get(i));
+      String value = values.get(variables.get(i));
+      if (value == null) {
+        buffer.append("${").append(variables.get(i)).append('}');
+      } else if (escapeRegex) {
+        appendEscaped(buffer, value);
+      } else {
+        buffer.append(value);
+      }
+    }
+    buffer.append(literals.get(variables.size()));
+    return buffer.toString();
+  }
+
+  private static void appendEscaped(StringBuilder buffer, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        buffer.append('\\');
+      }
+      buffer.append(c);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
@@ -0,0 +1,294 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.git.meta.MetaDataUpdate;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectConfig;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Apply the same change of the policy settings to many root projects, e.g. to delegate project
+ * creation to a group under all the roots of an organisation.
+ *
+ * <p>Each root is updated by its own commit to refs/meta/config, as the calling administrator, the
+ * commits of different roots running in parallel on the {@link PolicyUpdateQueue}. Roots already
+ * having the requested settings are not committed to. One JSON object per root is streamed back as
+ * soon as the root is done.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+class UpdatePolicies implements RestModifyView<ConfigResource, UpdatePolicies.Input> {
+  private static final Logger log = LoggerFactory.getLogger(UpdatePolicies.class);
+
+  static final String UPDATED = "UPDATED";
+  static final String COMPLIANT = "COMPLIANT";
+  static final String FAILED = "FAILED";
+
+  private static final ImmutableSet<String> BOOLEAN_KEYS =
+      ImmutableSet.of(ProjectCreationValidator.DISABLE_GRANTING_PROJECT_OWNERSHIP);
+  private static final ImmutableSet<String> INT_KEYS =
+      ImmutableSet.of(
+          ProjectCreationValidator.MAX_PROJECTS,
+          ProjectCreationValidator.MAX_DEPTH,
+          ProjectCreationValidator.MAX_CHILDREN);
+
+  static class Input {
+    /** Root projects to update. */
+    List<String> roots;
+    /** Settings to set, by name; group names for delegateProjectCreationTo. */
+    Map<String, List<String>> set;
+    /** Settings to remove. */
+    List<String> unset;
+  }
+
+  static class ResultInfo {
+    String root;
+    String status;
+    String error;
+
+    ResultInfo(String root, String status, String error) {
+      this.root = root;
+      this.status = status;
+      this.error = error;
+    }
+  }
+
+  private final PolicyUpdateQueue queue;
+  private final MetaDataUpdate.User metaDataUpdateFactory;
+  private final ProjectConfig.Factory projectConfigFactory;
+  private final ProjectCache projectCache;
+  private final GroupResolutionCache groupResolutionCache;
+  private final ThreadLocalRequestContext threadLocalRequestContext;
+  private final AllProjectsName allProjectsName;
+  private final AllUsersName allUsersName;
+  private final String pluginName;
+  private final Gson gson = OutputFormat.JSON_COMPACT.newGson();
+
+  @Inject
+  UpdatePolicies(
+      PolicyUpdateQueue queue,
+      MetaDataUpdate.User metaDataUpdateFactory,
+      ProjectConfig.Factory projectConfigFactory,
+      ProjectCache projectCache,
+      GroupResolutionCache groupResolutionCache,
+      ThreadLocalRequestContext threadLocalRequestContext,
+      AllProjectsName allProjectsName,
+      AllUsersName allUsersName,
+      @PluginName String pluginName) {
+    this.queue = queue;
+    this.metaDataUpdateFactory = metaDataUpdateFactory;
+    this.projectConfigFactory = projectConfigFactory;
+    this.projectCache = projectCache;
+    this.groupResolutionCache = groupResolutionCache;
+    this.threadLocalRequestContext = threadLocalRequestContext;
+    this.allProjectsName = allProjectsName;
+    this.allUsersName = allUsersName;
+    this.pluginName = pluginName;
+  }
+
+  @Override
+  public Response<BinaryResult> apply(ConfigResource resource, Input input)
+      throws RestApiException {
+    if (input == null || input.roots == null || input.roots.isEmpty()) {
+      throw new BadRequestException("roots must be set");
+    }
+    Map<String, List<String>> set = input.set != null ? input.set : Collections.emptyMap();
+    List<String> unset = input.unset != null ? input.unset : Collections.emptyList();
+    if (set.isEmpty() && unset.isEmpty()) {
+      throw new BadRequestException("set or unset must be set");
+    }
+    for (String root : input.roots) {
+      if (root.indexOf('/') >= 0
+          || allProjectsName.get().equals(root)
+          || allUsersName.get().equals(root)) {
+        throw new BadRequestException(String.format("%s is not a root project", root));
+      }
+      if (!projectCache.get(Project.nameKey(root)).isPresent()) {
+        throw new UnprocessableEntityException(String.format("Project %s not found", root));
+      }
+    }
+    Map<String, List<String>> values = new LinkedHashMap<>();
+    List<GroupReference> groups = new ArrayList<>();
+    for (Map.Entry<String, List<String>> setting : set.entrySet()) {
+      values.put(setting.getKey(), parse(setting.getKey(), setting.getValue(), groups));
+    }
+    for (String key : unset) {
+      checkKey(key);
+      if (values.put(key, Collections.emptyList()) != null) {
+        throw new BadRequestException(String.format("%s is both set and unset", key));
+      }
+    }
+
+    List<String> roots = new ArrayList<>(new LinkedHashSet<>(input.roots));
+    RequestContext context = threadLocalRequestContext.getContext();
+    BinaryResult result =
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            Writer out = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+            CompletionService<ResultInfo> completion = new ExecutorCompletionService<>(queue.get());
+            for (String root : roots) {
+              completion.submit(() -> update(context, root, values, groups));
+            }
+            for (int i = 0; i < roots.size(); i++) {
+              out.write(gson.toJson(take(completion)));
+              out.write('\n');
+              out.flush();
+            }
+          }
+        };
+    return Response.ok(
+        result.setContentType("application/x-ndjson").setCharacterEncoding(UTF_8));
+  }
+
+  private List<String> parse(String key, List<String> values, List<GroupReference> groups)
+      throws RestApiException {
+    checkKey(key);
+    if (values == null || values.isEmpty()) {
+      throw new BadRequestException(String.format("Missing value of %s", key));
+    }
+    if (ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO.equals(key)) {
+      List<String> parsed = new ArrayList<>();
+      for (String groupName : values) {
+        Optional<GroupReference> group = groupResolutionCache.get(groupName);
+        if (!group.isPresent()) {
+          throw new UnprocessableEntityException(String.format("Group %s not found", groupName));
+        }
+        groups.add(group.get());
+        parsed.add(group.get().toConfigValue());
+      }
+      return parsed;
+    }
+    if (values.size() > 1) {
+      throw new BadRequestException(String.format("%s takes a single value", key));
+    }
+    String value = values.get(0);
+    if (BOOLEAN_KEYS.contains(key) && !"true".equals(value) && !"false".equals(value)) {
+      throw new BadRequestException(String.format("%s must be true or false", key));
+    }
+    if (INT_KEYS.contains(key)) {
+      try {
+        if (Integer.parseInt(value) < 0) {
+          throw new BadRequestException(String.format("%s must not be negative", key));
+        }
+      } catch (NumberFormatException e) {
+        throw new BadRequestException(String.format("%s must be a number", key));
+      }
+    }
+    return values;
+  }
+
+  private static void checkKey(String key) throws BadRequestException {
+    if (!ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO.equals(key)
+        && !BOOLEAN_KEYS.contains(key)
+        && !INT_KEYS.contains(key)) {
+      throw new BadRequestException(String.format("Unsupported setting %s", key));
+    }
+  }
+
+  private ResultInfo update(
+      RequestContext context,
+      String root,
+      Map<String, List<String>> values,
+      List<GroupReference> groups) {
+    RequestContext old = threadLocalRequestContext.setContext(context);
+    Project.NameKey project = Project.nameKey(root);
+    try (MetaDataUpdate md = metaDataUpdateFactory.create(project)) {
+      ProjectConfig config = projectConfigFactory.read(md);
+      boolean[] changed = {false};
+      config.updatePluginConfig(
+          pluginName,
+          pluginConfig -> {
+            for (Map.Entry<String, List<String>> setting : values.entrySet()) {
+              List<String> current =
+                  Arrays.asList(pluginConfig.asPluginConfig().getStringList(setting.getKey()));
+              if (current.equals(setting.getValue())) {
+                continue;
+              }
+              changed[0] = true;
+              if (setting.getValue().isEmpty()) {
+                pluginConfig.unset(setting.getKey());
+              } else {
+                pluginConfig.setStringList(setting.getKey(), setting.getValue());
+              }
+            }
+          });
+      if (!changed[0]) {
+        return new ResultInfo(root, COMPLIANT, null);
+      }
+      groups.forEach(config::resolve);
+      md.setMessage("Update " + pluginName + " policy\n");
+      config.commit(md);
+      projectCache.evict(project);
+      return new ResultInfo(root, UPDATED, null);
+    } catch (Exception e) {
+      log.warn("Failed to update the policy of {}: {}", root, e.getMessage());
+      return new ResultInfo(root, FAILED, e.getMessage());
+    } finally {
+      threadLocalRequestContext.setContext(old);
+    }
+  }
+
+  private static ResultInfo take(CompletionService<ResultInfo> completion) throws IOException {
+    try {
+      return completion.take().get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.account.GroupCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class CreateTreeIT extends LightweightPluginDaemonTest {
+  private static final String CREATE_TREE = "/config/server/project-group-structure~create-tree";
+
+  @Inject private ProjectOperations projectOperations;
+  @Inject private GroupCache groupCache;
+
+  @Override
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    super.setUpTestPlugin();
+    // These access rights are mandatory configuration for this plugin as
+    // documented in config.md
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_GROUP).group(REGISTERED_USERS))
+        .update();
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_PROJECT).group(REGISTERED_USERS))
+        .update();
+  }
+
+  @Test
+  public void shouldCreateTreeOwnedByOneGroup() throws Exception {
+    String root = name("root");
+    CreateTree.Input in = new CreateTree.Input();
+    in.projects = new ArrayList<>();
+    in.projects.add(entry(root + "/a/b"));
+    in.projects.add(entry(root + "/a"));
+    in.projects.add(entry(root + "/c"));
+    CreateTree.ProjectEntry rootEntry = entry(root);
+    rootEntry.permissionsOnly = true;
+    in.projects.add(rootEntry);
+
+    RestResponse r = userRestSession.post(CREATE_TREE, in);
+    r.assertOK();
+    Map<String, CreateTree.ResultInfo> results =
+        newGson()
+            .fromJson(
+                r.getReader(), new TypeToken<Map<String, CreateTree.ResultInfo>>() {}.getType());
+    assertThat(results.keySet())
+        .containsExactly(root, root + "/a", root + "/c", root + "/a/b")
+        .inOrder();
+    for (CreateTree.ResultInfo result : results.values()) {
+      assertThat(result.status).isEqualTo(CreateTree.CREATED);
+    }
+
+    Optional<InternalGroup> admins = groupCache.get(AccountGroup.nameKey(root + "-admins"));
+    assertThat(admins.isPresent()).isTrue();
+    assertThat(groupCache.get(AccountGroup.nameKey(root + "/a-admins")).isPresent()).isFalse();
+    ProjectState rootState = projectCache.get(Project.nameKey(root)).get();
+    assertThat(rootState.getOwners()).contains(admins.get().getGroupUUID());
+    assertThat(projectCache.get(Project.nameKey(root + "/a/b")).get().getProject().getParent())
+        .isEqualTo(Project.nameKey(root + "/a"));
+  }
+
+  @Test
+  public void shouldRejectWholeTreeIfOneProjectIsInvalid() throws Exception {
+    String root = name("root");
+    CreateTree.Input in = new CreateTree.Input();
+    in.projects = new ArrayList<>();
+    CreateTree.ProjectEntry rootEntry = entry(root);
+    rootEntry.permissionsOnly = true;
+    in.projects.add(rootEntry);
+    in.projects.add(entry(root + "/a"));
+    CreateTree.ProjectEntry misplaced = entry(name("other") + "/b");
+    misplaced.parent = root;
+    in.projects.add(misplaced);
+
+    RestResponse r = userRestSession.post(CREATE_TREE, in);
+    r.assertConflict();
+    assertThat(r.getEntityContent()).contains(name("other") + "/b");
+    assertThat(projectCache.get(Project.nameKey(root)).isPresent()).isFalse();
+    assertThat(groupCache.get(AccountGroup.nameKey(root + "-admins")).isPresent()).isFalse();
+  }
+
+  @Test
+  public void shouldCreateOneOwnerGroupWhenAnOwnedProjectFails() throws Exception {
+    String root = name("root");
+    String invalid = name("invalid") + "$";
+    CreateTree.Input in = new CreateTree.Input();
+    in.projects = new ArrayList<>();
+    CreateTree.ProjectEntry rootEntry = entry(root);
+    rootEntry.permissionsOnly = true;
+    in.projects.add(rootEntry);
+    // valid for this plugin, but not a valid repository name
+    CreateTree.ProjectEntry invalidEntry = entry(invalid);
+    invalidEntry.permissionsOnly = true;
+    in.projects.add(invalidEntry);
+
+    RestResponse r = userRestSession.post(CREATE_TREE, in);
+    r.assertOK();
+    Map<String, CreateTree.ResultInfo> results =
+        newGson()
+            .fromJson(
+                r.getReader(), new TypeToken<Map<String, CreateTree.ResultInfo>>() {}.getType());
+    assertThat(results.get(invalid).status).isEqualTo(CreateTree.FAILED);
+    assertThat(results.get(root).status).isEqualTo(CreateTree.CREATED);
+
+    Optional<InternalGroup> admins = groupCache.get(AccountGroup.nameKey(invalid + "-admins"));
+    assertThat(admins.isPresent()).isTrue();
+    assertThat(groupCache.get(AccountGroup.nameKey(root + "-admins")).isPresent()).isFalse();
+    assertThat(projectCache.get(Project.nameKey(root)).get().getOwners())
+        .containsExactly(admins.get().getGroupUUID());
+  }
+
+  @Test
+  public void shouldNotCreateOwnerGroupIfQuotaIsExceeded() throws Exception {
+    String root = name("root");
+    CreateTree.Input in = new CreateTree.Input();
+    in.projects = new ArrayList<>();
+    CreateTree.ProjectEntry rootEntry = entry(root);
+    rootEntry.permissionsOnly = true;
+    in.projects.add(rootEntry);
+    userRestSession.post(CREATE_TREE, in).assertOK();
+    try (ProjectConfigUpdate cfgUpdate = updateProject(Project.nameKey(root))) {
+      cfgUpdate
+          .getConfig()
+          .updatePluginConfig(
+              "project-group-structure",
+              pluginCfg -> pluginCfg.setInt(ProjectCreationValidator.MAX_CHILDREN, 1));
+      cfgUpdate.save();
+    }
+
+    String other = name("other");
+    in.projects = new ArrayList<>();
+    CreateTree.ProjectEntry otherEntry = entry(other);
+    otherEntry.permissionsOnly = true;
+    in.projects.add(otherEntry);
+    in.projects.add(entry(root + "/a"));
+    in.projects.add(entry(root + "/b"));
+
+    RestResponse r = userRestSession.post(CREATE_TREE, in);
+    r.assertConflict();
+    assertThat(r.getEntityContent()).contains("maximum number of child projects (1)");
+    assertThat(projectCache.get(Project.nameKey(other)).isPresent()).isFalse();
+    assertThat(groupCache.get(AccountGroup.nameKey(other + "-admins")).isPresent()).isFalse();
+  }
+
+  @Test
+  public void shouldRejectExistingProject() throws Exception {
+    Project.NameKey existing = projectOperations.newProject().create();
+    CreateTree.Input in = new CreateTree.Input();
+    in.projects = new ArrayList<>();
+    in.projects.add(entry(existing.get()));
+    userRestSession.post(CREATE_TREE, in).assertConflict();
+  }
+
+  private static CreateTree.ProjectEntry entry(String name) {
+    CreateTree.ProjectEntry entry = new CreateTree.ProjectEntry();
+    entry.name = name;
+    return entry;
+  }
+}
@@ -17,23 +17,38 @@ package com.ericsson.gerrit.plugins.projectgroupstructure;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
 import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+import static java.util.stream.Collectors.toList;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
 import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
 import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
 import com.google.gerrit.common.data.GlobalCapability;
 import com.google.gerrit.entities.AccessSection;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.CachedProjectConfig;
 import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.PermissionRule;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.api.changes.NotifyHandling;
 import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
 import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -43,6 +58,7 @@ import org.junit.Test;
 public class DefaultAccessRightsIT extends LightweightPluginDaemonTest {
 
   @Inject private ProjectOperations projectOperations;
+  @Inject private GroupOperations groupOperations;
 
   @Override
   @Before
@@ -64,6 +80,37 @@ public class DefaultAccessRightsIT extends LightweightPluginDaemonTest {
             + "[access \"refs/invalidregex/${username(((((\"]\n";
     Files.write(
         tempDataDir.newFile(ProjectConfig.PROJECT_CONFIG).toPath(), defaultAccessRights.getBytes());
+    String templates =
+        "[template \"special\"]\n"
+            + "  file = special.config\n"
+            + "  rootPattern = .*special.*\n"
+            + "[template \"multi\"]\n"
+            + "  file = multi.config\n"
+            + "  rootPattern = .*multi.*\n"
+            + "[template \"variables\"]\n"
+            + "  file = variables.config\n"
+            + "  rootPattern = .*variables.*\n"
+            + "[template \"shared\"]\n"
+            + "  file = special.config\n"
+            + "  rootPattern = .*shared.*\n"
+            + "[template \"default\"]\n"
+            + "  file = special.config\n"
+            + "  rootPattern = .*reserved.*\n";
+    Files.write(
+        tempDataDir.newFile(AccessTemplates.TEMPLATES_CONFIG).toPath(), templates.getBytes());
+    String specialAccessRights = "[access \"refs/tags/*\"]\n" + "  read = group ${owner}\n";
+    Files.write(tempDataDir.newFile("special.config").toPath(), specialAccessRights.getBytes());
+    String multiAccessRights = "[access \"refs/*\"]\n" + "  read = group ${owners}\n";
+    Files.write(tempDataDir.newFile("multi.config").toPath(), multiAccessRights.getBytes());
+    String variablesAccessRights =
+        "[access \"refs/heads/${project}/*\"]\n"
+            + "  read = group ${owner}\n"
+            + "[access \"^refs/heads/${root}-[0-9]+\"]\n"
+            + "  read = group ${owner}\n"
+            + "[access \"refs/users/${username}\"]\n"
+            + "  read = group ${owner}\n";
+    Files.write(
+        tempDataDir.newFile("variables.config").toPath(), variablesAccessRights.getBytes());
     super.setUpTestPlugin();
     // These access rights are mandatory configuration for this plugin as
     // documented in config.md
@@ -150,4 +197,219 @@ public class DefaultAccessRightsIT extends LightweightPluginDaemonTest {
                 .size())
         .isEqualTo(0);
   }
+
+  @Test
+  public void shouldApplyTemplateMatchingRootName() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String projectName = name("specialProject");
+    userRestSession.put("/projects/" + projectName, in).assertCreated();
+    projectCache.evict(Project.nameKey(projectName));
+
+    Optional<ProjectState> projectState = projectCache.get(Project.nameKey(projectName));
+    AccountGroup.UUID ownerUUID = projectState.get().getOwners().iterator().next();
+    CachedProjectConfig projectConfig = projectState.get().getConfig();
+
+    assertThat(projectConfig.getAccessSection("refs/heads/*").isPresent()).isFalse();
+    AccessSection refsTagsSection = projectConfig.getAccessSection("refs/tags/*").get();
+    assertThat(
+            refsTagsSection.getPermission(Permission.READ).getRules().get(0).getGroup().getUUID())
+        .isEqualTo(ownerUUID);
+  }
+
+  @Test
+  public void shouldNameTemplateAfterEachRuleSharingItsFile() throws Exception {
+    AccessTemplates accessTemplates = plugin.getSysInjector().getInstance(AccessTemplates.class);
+
+    AccessTemplate template = accessTemplates.select("sharedProject", GroupMembership.EMPTY);
+
+    assertThat(template.getName()).isEqualTo("shared");
+    assertThat(accessTemplates.get("shared")).hasValue(template);
+    assertThat(template.getVersion()).isEqualTo(accessTemplates.get("special").get().getVersion());
+  }
+
+  @Test
+  public void shouldIgnoreRuleNamedAfterDefaultTemplate() throws Exception {
+    AccessTemplates accessTemplates = plugin.getSysInjector().getInstance(AccessTemplates.class);
+
+    AccessTemplate template = accessTemplates.select("reservedProject", GroupMembership.EMPTY);
+
+    assertThat(template)
+        .isSameInstanceAs(accessTemplates.get(AccessTemplates.DEFAULT_TEMPLATE).get());
+    assertThat(template.getSections()).hasSize(2);
+  }
+
+  @Test
+  public void shouldExpandAllOwnersInNameOrder() throws Exception {
+    AccountGroup.UUID ownerB = groupOperations.newGroup().name(name("b-owners")).create();
+    AccountGroup.UUID ownerA = groupOperations.newGroup().name(name("a-owners")).create();
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    in.owners = ImmutableList.of(ownerB.get(), ownerA.get());
+    String projectName = name("multiProject");
+    adminRestSession.put("/projects/" + projectName, in).assertCreated();
+    projectCache.evict(Project.nameKey(projectName));
+
+    CachedProjectConfig projectConfig =
+        projectCache.get(Project.nameKey(projectName)).get().getConfig();
+    List<PermissionRule> rules =
+        projectConfig.getAccessSection("refs/*").get().getPermission(Permission.READ).getRules();
+    assertThat(rules.stream().map(r -> r.getGroup().getUUID()).collect(toList()))
+        .containsExactly(ownerA, ownerB)
+        .inOrder();
+  }
+
+  @Test
+  public void shouldRenderVariablesInRefNames() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String projectName = name("variablesProject");
+    userRestSession.put("/projects/" + projectName, in).assertCreated();
+    projectCache.evict(Project.nameKey(projectName));
+
+    CachedProjectConfig projectConfig =
+        projectCache.get(Project.nameKey(projectName)).get().getConfig();
+    assertThat(projectConfig.getAccessSection("refs/heads/" + projectName + "/*").isPresent())
+        .isTrue();
+    String escapedName = projectName.replaceAll("([^\\p{L}\\p{N}])", "\\\\$1");
+    String regexRefName = "^refs/heads/" + escapedName + "-[0-9]+";
+    assertThat(projectConfig.getAccessSection(regexRefName).isPresent()).isTrue();
+    assertThat(projectConfig.getAccessSection("refs/users/${username}").isPresent()).isTrue();
+  }
+
+  @Test
+  public void shouldNotCommitWhenTemplateAlreadyApplied() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String projectName = name("replayedProject");
+    userRestSession.put("/projects/" + projectName, in).assertCreated();
+    RevCommit head =
+        projectOperations.project(Project.nameKey(projectName)).getHead(RefNames.REFS_CONFIG);
+
+    plugin
+        .getSysInjector()
+        .getInstance(DefaultAccessRights.class)
+        .onNewProjectCreated(
+            new NewProjectCreatedListener.Event() {
+              @Override
+              public String getProjectName() {
+                return projectName;
+              }
+
+              @Override
+              public String getHeadName() {
+                return "refs/heads/master";
+              }
+
+              @Override
+              public NotifyHandling getNotify() {
+                return NotifyHandling.ALL;
+              }
+            });
+
+    assertThat(
+            projectOperations.project(Project.nameKey(projectName)).getHead(RefNames.REFS_CONFIG))
+        .isEqualTo(head);
+  }
+
+  @Test
+  public void shouldSetAccessRightsAgainOnRetry() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String projectName = name("retriedProject");
+    userRestSession.put("/projects/" + projectName, in).assertCreated();
+    assertThat(plugin.getSysInjector().getInstance(RetryJournal.class).getPendingCount())
+        .isEqualTo(0);
+    try (ProjectConfigUpdate u = updateProject(Project.nameKey(projectName))) {
+      u.getConfig().remove(u.getConfig().getAccessSection("refs/heads/*"));
+      u.save();
+    }
+
+    plugin
+        .getSysInjector()
+        .getInstance(DefaultAccessRights.class)
+        .retry(projectName, AccessTemplates.DEFAULT_TEMPLATE, user.username());
+
+    projectCache.evict(Project.nameKey(projectName));
+    assertThat(
+            projectCache
+                .get(Project.nameKey(projectName))
+                .get()
+                .getConfig()
+                .getAccessSection("refs/heads/*")
+                .isPresent())
+        .isTrue();
+  }
+
+  @Test
+  public void shouldReplayFailedApplicationRecordedBeforeRestart() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String projectName = name("interruptedProject");
+    userRestSession.put("/projects/" + projectName, in).assertCreated();
+    try (ProjectConfigUpdate u = updateProject(Project.nameKey(projectName))) {
+      u.getConfig().remove(u.getConfig().getAccessSection("refs/heads/*"));
+      u.save();
+    }
+
+    // the node stops once the application is recorded, before the template is applied
+    Injector injector = plugin.getSysInjector();
+    injector
+        .getInstance(RetryJournal.class)
+        .add(projectName, AccessTemplates.DEFAULT_TEMPLATE, user.username());
+    Path dataDir = injector.getInstance(Key.get(Path.class, PluginData.class));
+    assertThat(Files.readAllLines(dataDir.resolve(RetryJournal.JOURNAL_FILE)).toString())
+        .contains(projectName);
+
+    RetryJournal restarted =
+        new RetryJournal(
+            injector.getProvider(DefaultAccessRights.class),
+            injector.getInstance(WorkQueue.class),
+            dataDir);
+    restarted.start();
+    try {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (restarted.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertThat(restarted.getPendingCount()).isEqualTo(0);
+    } finally {
+      restarted.stop();
+    }
+
+    projectCache.evict(Project.nameKey(projectName));
+    assertThat(
+            projectCache
+                .get(Project.nameKey(projectName))
+                .get()
+                .getConfig()
+                .getAccessSection("refs/heads/*")
+                .isPresent())
+        .isTrue();
+  }
+
+  @Test
+  public void shouldSyncRecordAddedByInterruptedThread() throws Exception {
+    String projectName = name("interruptedThreadProject");
+    Injector injector = plugin.getSysInjector();
+    RetryJournal retryJournal = injector.getInstance(RetryJournal.class);
+
+    // closes the channel of the journal on the first write
+    Thread.currentThread().interrupt();
+    try {
+      retryJournal.add(projectName, AccessTemplates.DEFAULT_TEMPLATE, user.username());
+      assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    } finally {
+      Thread.interrupted();
+    }
+
+    Path dataDir = injector.getInstance(Key.get(Path.class, PluginData.class));
+    assertThat(Files.readAllLines(dataDir.resolve(RetryJournal.JOURNAL_FILE)).toString())
+        .contains(projectName);
+    retryJournal.add(projectName + "-next", AccessTemplates.DEFAULT_TEMPLATE, user.username());
+    assertThat(Files.readAllLines(dataDir.resolve(RetryJournal.JOURNAL_FILE)).toString())
+        .contains(projectName + "-next");
+    retryJournal.remove(projectName);
+    retryJournal.remove(projectName + "-next");
+  }
 }
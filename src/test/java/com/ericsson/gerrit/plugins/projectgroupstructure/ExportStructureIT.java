@@ -0,0 +1,95 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gson.Gson;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class ExportStructureIT extends LightweightPluginDaemonTest {
+  private static final String EXPORT = "/config/server/project-group-structure~export";
+
+  @Test
+  public void shouldExportSubtreeAsNdjson() throws Exception {
+    String root = createTree();
+
+    RestResponse r = adminRestSession.get(EXPORT + "?root=" + root);
+    r.assertOK();
+    String[] lines = r.getEntityContent().split("\n");
+    assertThat(lines).hasLength(3);
+    Gson gson = OutputFormat.JSON_COMPACT.newGson();
+    ExportStructure.NodeInfo node = gson.fromJson(lines[1], ExportStructure.NodeInfo.class);
+    assertThat(node.name).isEqualTo(root + "/a");
+    assertThat(node.parent).isEqualTo(root);
+    assertThat(node.depth).isEqualTo(1);
+    assertThat(gson.fromJson(lines[2], ExportStructure.NodeInfo.class).name)
+        .isEqualTo(root + "/a/b");
+  }
+
+  @Test
+  public void shouldLimitDepth() throws Exception {
+    String root = createTree();
+
+    RestResponse r = adminRestSession.get(EXPORT + "?root=" + root + "&depth=1");
+    r.assertOK();
+    assertThat(r.getEntityContent().split("\n")).hasLength(2);
+  }
+
+  @Test
+  public void shouldExportAsDot() throws Exception {
+    String root = createTree();
+
+    RestResponse r = adminRestSession.get(EXPORT + "?format=DOT&root=" + root);
+    r.assertOK();
+    String dot = r.getEntityContent();
+    assertThat(dot).startsWith("digraph");
+    assertThat(dot).contains("\"" + root + "\" -> \"" + root + "/a\";");
+    assertThat(dot).contains("\"" + root + "/a\" -> \"" + root + "/a/b\";");
+  }
+
+  @Test
+  public void shouldRejectUnknownRoot() throws Exception {
+    adminRestSession.get(EXPORT + "?root=" + name("unknown")).assertNotFound();
+  }
+
+  @Test
+  public void shouldOnlyBeAllowedForAdministrators() throws Exception {
+    userRestSession.get(EXPORT).assertForbidden();
+  }
+
+  private String createTree() throws Exception {
+    String root = name("root");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    adminRestSession.put("/projects/" + root, in).assertCreated();
+    for (String name : ImmutableList.of(root + "/a", root + "/a/b")) {
+      in = new ProjectInput();
+      in.parent = name.substring(0, name.lastIndexOf('/'));
+      adminRestSession.put("/projects/" + Url.encode(name), in).assertCreated();
+    }
+    return root;
+  }
+}
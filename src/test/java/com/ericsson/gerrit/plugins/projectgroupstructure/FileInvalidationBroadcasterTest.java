@@ -0,0 +1,95 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileInvalidationBroadcasterTest {
+  private static final long POLL_INTERVAL_MS = 10;
+
+  @Rule public TemporaryFolder sharedDir = new TemporaryFolder();
+
+  private ScheduledExecutorService executor;
+  private FileInvalidationBroadcaster node1;
+  private FileInvalidationBroadcaster node2;
+  private final BlockingQueue<String> received1 = new LinkedBlockingQueue<>();
+  private final BlockingQueue<String> received2 = new LinkedBlockingQueue<>();
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newScheduledThreadPool(2);
+    Path directory = sharedDir.getRoot().toPath().resolve("invalidations");
+    node1 = new FileInvalidationBroadcaster(directory, executor, POLL_INTERVAL_MS);
+    node2 = new FileInvalidationBroadcaster(directory, executor, POLL_INTERVAL_MS);
+    node1.start((cache, key) -> received1.add(cache + ":" + key));
+    node2.start((cache, key) -> received2.add(cache + ":" + key));
+  }
+
+  @After
+  public void tearDown() {
+    node1.stop();
+    node2.stop();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldDeliverToOtherNodesOnly() throws Exception {
+    node1.publish(CacheInvalidator.POLICY, "orgA");
+    node2.publish(CacheInvalidator.PROJECT_NAMES, "orgA/projectB");
+
+    assertThat(received2.poll(5, SECONDS)).isEqualTo("policy:orgA");
+    assertThat(received1.poll(5, SECONDS)).isEqualTo("project_names:orgA/projectB");
+    Thread.sleep(10 * POLL_INTERVAL_MS);
+    assertThat(received1).isEmpty();
+    assertThat(received2).isEmpty();
+  }
+
+  @Test
+  public void shouldDeliverInPublicationOrder() throws Exception {
+    node1.publish(CacheInvalidator.PROJECT_NAMES, "a");
+    node1.publish(CacheInvalidator.PROJECT_NAMES, "b");
+    node1.publish(CacheInvalidator.PROJECT_NAMES, "c");
+
+    assertThat(received2.poll(5, SECONDS)).isEqualTo("project_names:a");
+    assertThat(received2.poll(5, SECONDS)).isEqualTo("project_names:b");
+    assertThat(received2.poll(5, SECONDS)).isEqualTo("project_names:c");
+  }
+
+  @Test
+  public void shouldNotDeliverInvalidationsPublishedBeforeStart() throws Exception {
+    node1.publish(CacheInvalidator.POLICY, "before");
+    FileInvalidationBroadcaster node3 =
+        new FileInvalidationBroadcaster(
+            sharedDir.getRoot().toPath().resolve("invalidations"), executor, POLL_INTERVAL_MS);
+    BlockingQueue<String> received3 = new LinkedBlockingQueue<>();
+    node3.start((cache, key) -> received3.add(cache + ":" + key));
+    node1.publish(CacheInvalidator.POLICY, "after");
+
+    assertThat(received3.poll(5, SECONDS)).isEqualTo("policy:after");
+    node3.stop();
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.RestSession;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class GroupCreationCoalescerIT extends LightweightPluginDaemonTest {
+  private static final int USERS = 4;
+
+  @Inject private ProjectOperations projectOperations;
+  @Inject private GroupOperations groupOperations;
+
+  @Override
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    super.setUpTestPlugin();
+    // These access rights are mandatory configuration for this plugin as
+    // documented in config.md
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_GROUP).group(REGISTERED_USERS))
+        .update();
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_PROJECT).group(REGISTERED_USERS))
+        .update();
+  }
+
+  @Test
+  public void shouldCreateOneGroupPerCallerForConcurrentCreations() throws Exception {
+    List<TestAccount> accounts = new ArrayList<>();
+    List<String> roots = new ArrayList<>();
+    for (int i = 0; i < USERS; i++) {
+      String username = name("user" + i);
+      accounts.add(accountCreator.create(username, username + "@example.com", username, null));
+      roots.add(name("root" + i));
+    }
+
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    ExecutorService executor = Executors.newFixedThreadPool(USERS);
+    try {
+      List<Future<RestResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < USERS; i++) {
+        RestSession session = new RestSession(server, accounts.get(i));
+        String root = roots.get(i);
+        responses.add(executor.submit(() -> session.put("/projects/" + root, in)));
+      }
+      for (Future<RestResponse> response : responses) {
+        response.get().assertCreated();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Set<AccountGroup.UUID> ownerGroups = new HashSet<>();
+    for (int i = 0; i < USERS; i++) {
+      AccountGroup.UUID ownerGroup =
+          groupCache.get(AccountGroup.nameKey(roots.get(i) + "-admins")).get().getGroupUUID();
+      ownerGroups.add(ownerGroup);
+      assertThat(projectCache.get(Project.nameKey(roots.get(i))).get().getOwners())
+          .containsExactly(ownerGroup);
+      assertThat(members(ownerGroup)).containsExactly(accounts.get(i).id().get());
+    }
+    assertThat(ownerGroups).hasSize(USERS);
+  }
+
+  @Test
+  public void shouldSuffixGroupNameAlreadyTaken() throws Exception {
+    String groupName = name("group");
+    AccountGroup.UUID existing = groupOperations.newGroup().name(groupName).create();
+
+    AccountGroup.UUID created =
+        plugin.getSysInjector().getInstance(GroupCreationCoalescer.class).create(groupName);
+
+    assertThat(created).isNotEqualTo(existing);
+    assertThat(groupCache.get(created).get().getName())
+        .isEqualTo(
+            groupName
+                + "-"
+                + Hashing.sha256()
+                    .hashString(groupName, Charsets.UTF_8)
+                    .toString()
+                    .substring(0, 7));
+    assertThat(members(created)).containsExactly(admin.id().get());
+  }
+
+  private List<Integer> members(AccountGroup.UUID group) throws Exception {
+    return gApi.groups().id(group.get()).members().stream()
+        .map(a -> a._accountId)
+        .collect(toList());
+  }
+}
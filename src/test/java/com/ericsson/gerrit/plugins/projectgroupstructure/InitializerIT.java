@@ -0,0 +1,190 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.changes.NotifyHandling;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class InitializerIT extends LightweightPluginDaemonTest {
+  private static final String PLUGIN_NAME = "project-group-structure";
+
+  @Inject private ProjectOperations projectOperations;
+  @Inject private PluginConfigFactory pluginConfigFactory;
+  @Inject private WorkQueue workQueue;
+
+  @Test
+  public void shouldValidateFromProjectListBeforeLoaded() throws Exception {
+    Project.NameKey parent = projectOperations.newProject().create();
+    projectOperations.newProject().name(parent.get() + "/a").parent(parent).create();
+    projectOperations.newProject().name(parent.get() + "/b").parent(parent).create();
+
+    SubtreeCounters subtreeCounters = new SubtreeCounters(projectCache);
+    ProjectNameIndex projectNameIndex = newProjectNameIndex(subtreeCounters);
+
+    assertThat(projectNameIndex.contains(parent.get() + "/a")).isTrue();
+    assertThat(projectNameIndex.withPrefix(parent.get() + "/"))
+        .containsExactly(parent.get() + "/a", parent.get() + "/b")
+        .inOrder();
+    assertThat(subtreeCounters.getChildCount(parent.get())).isEqualTo(2);
+    assertThat(subtreeCounters.check(parent.get() + "/c", 0, 2))
+        .isEqualTo(SubtreeCounters.Reservation.MAX_CHILDREN_REACHED);
+    assertThat(subtreeCounters.check(parent.get() + "/c", 0, 3))
+        .isEqualTo(SubtreeCounters.Reservation.RESERVED);
+  }
+
+  @Test
+  public void shouldReplayEventsReceivedWhileLoading() throws Exception {
+    Project.NameKey deleted = projectOperations.newProject().create();
+    String root = name("root");
+    String created = root + "/created";
+
+    SubtreeCounters subtreeCounters = new SubtreeCounters(projectCache);
+    ProjectNameIndex projectNameIndex = newProjectNameIndex(subtreeCounters);
+    projectNameIndex.onProjectDeleted(deletedEvent(deleted.get()));
+    projectNameIndex.onNewProjectCreated(createdEvent(created));
+    // not applied until loaded
+    assertThat(projectNameIndex.contains(created)).isFalse();
+
+    projectNameIndex.load();
+
+    assertThat(projectNameIndex.contains(deleted.get())).isFalse();
+    assertThat(projectNameIndex.contains(created)).isTrue();
+    assertThat(subtreeCounters.getSubtreeSize(root)).isEqualTo(1);
+    assertThat(subtreeCounters.getChildCount(root)).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldRetryFailedInitialization() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    SubtreeCounters subtreeCounters = new SubtreeCounters(projectCache);
+    ProjectNameIndex projectNameIndex =
+        new ProjectNameIndex(projectCache, subtreeCounters, cacheInvalidator()) {
+          @Override
+          void load() {
+            if (attempts.incrementAndGet() == 1) {
+              throw new IllegalStateException("project list not available");
+            }
+            super.load();
+          }
+        };
+    CallbackMetrics metrics = new CallbackMetrics();
+    Initializer initializer =
+        new Initializer(
+            workQueue,
+            projectNameIndex,
+            new DelegationIndex(
+                projectNameIndex,
+                projectCache,
+                pluginConfigFactory,
+                PLUGIN_NAME,
+                cacheInvalidator()),
+            plugin.getSysInjector().getInstance(AccessTemplates.class),
+            plugin.getSysInjector().getInstance(PolicyWarmUp.class),
+            metrics);
+    assertThat(metrics.get("init/ready")).isEqualTo(false);
+
+    initializer.start();
+    try {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (!initializer.isReady() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertThat(initializer.getState()).isEqualTo(Initializer.State.READY);
+    } finally {
+      initializer.stop();
+    }
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(metrics.get("init/ready")).isEqualTo(true);
+    assertThat(projectNameIndex.contains(project.get())).isTrue();
+  }
+
+  private ProjectNameIndex newProjectNameIndex(SubtreeCounters subtreeCounters) {
+    return new ProjectNameIndex(projectCache, subtreeCounters, cacheInvalidator());
+  }
+
+  private CacheInvalidator cacheInvalidator() {
+    return plugin.getSysInjector().getInstance(CacheInvalidator.class);
+  }
+
+  private static NewProjectCreatedListener.Event createdEvent(String name) {
+    return new NewProjectCreatedListener.Event() {
+      @Override
+      public String getProjectName() {
+        return name;
+      }
+
+      @Override
+      public String getHeadName() {
+        return "refs/heads/master";
+      }
+
+      @Override
+      public NotifyHandling getNotify() {
+        return NotifyHandling.NONE;
+      }
+    };
+  }
+
+  private static ProjectDeletedListener.Event deletedEvent(String name) {
+    return new ProjectDeletedListener.Event() {
+      @Override
+      public String getProjectName() {
+        return name;
+      }
+
+      @Override
+      public NotifyHandling getNotify() {
+        return NotifyHandling.NONE;
+      }
+    };
+  }
+
+  /** Keeps the callbacks of the metrics to read their current value. */
+  private static class CallbackMetrics extends DisabledMetricMaker {
+    private final Map<String, Supplier<?>> callbacks = new ConcurrentHashMap<>();
+
+    @Override
+    public <V> RegistrationHandle newCallbackMetric(
+        String name, Class<V> valueClass, Description desc, Supplier<V> trigger) {
+      callbacks.put(name, trigger);
+      return () -> callbacks.remove(name);
+    }
+
+    Object get(String name) {
+      return callbacks.get(name).get();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.inject.Inject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class NameBlocklistIT extends LightweightPluginDaemonTest {
+
+  @Inject private ProjectOperations projectOperations;
+
+  private Path blocklist;
+
+  @Override
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    String reservedNames = "# reserved names\n" + "legacy\n" + "*acme*\n" + "tmp*\n";
+    blocklist = tempDataDir.newFile(NameBlocklist.BLOCKLIST_FILE).toPath();
+    Files.write(blocklist, reservedNames.getBytes());
+    super.setUpTestPlugin();
+    // These access rights are mandatory configuration for this plugin as
+    // documented in config.md
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_GROUP).group(REGISTERED_USERS))
+        .update();
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_PROJECT).group(REGISTERED_USERS))
+        .update();
+  }
+
+  @Test
+  public void shouldBlockReservedNamesInAnySegment() throws Exception {
+    String parent = name("parentProject");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    userRestSession.put("/projects/" + parent, in).assertCreated();
+
+    in = new ProjectInput();
+    in.parent = parent;
+    assertReserved(parent + "/Legacy", in, "legacy");
+    assertReserved(parent + "/someAcmeProject", in, "*acme*");
+    assertReserved(parent + "/tmpProject", in, "tmp*");
+
+    userRestSession.put("/projects/" + Url.encode(parent + "/legacyProject"), in).assertCreated();
+    userRestSession.put("/projects/" + Url.encode(parent + "/projectTmp"), in).assertCreated();
+  }
+
+  @Test
+  public void shouldReloadBlocklistWhenModified() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    userRestSession.put("/projects/" + name("firstProject"), in).assertCreated();
+
+    Files.write(blocklist, "*second*\n".getBytes());
+    assertReserved(name("secondProject"), in, "*second*");
+  }
+
+  private void assertReserved(String projectName, ProjectInput in, String entry)
+      throws Exception {
+    RestResponse r = userRestSession.put("/projects/" + Url.encode(projectName), in);
+    r.assertConflict();
+    assertThat(r.getEntityContent())
+        .contains(String.format("Project name cannot contain the reserved name \"%s\"", entry));
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class PolicyWarmUpIT extends LightweightPluginDaemonTest {
+
+  @Test
+  @GerritConfig(name = "plugin.project-group-structure.warmUp", value = "true")
+  @GerritConfig(
+      name = "plugin.project-group-structure.warmUpRoots",
+      values = {"All-Projects", "All-Users"})
+  public void shouldLoadPoliciesOfConfiguredRootsOnceInitialized() throws Exception {
+    PolicyWarmUp warmUp = plugin.getSysInjector().getInstance(PolicyWarmUp.class);
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (warmUp.getRootsLoaded() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(warmUp.getRootsLoaded()).isEqualTo(2);
+    assertThat(plugin.getSysInjector().getInstance(Initializer.class).isReady()).isTrue();
+  }
+
+  @Test
+  public void shouldNotLoadPoliciesIfDisabled() throws Exception {
+    PolicyWarmUp warmUp = plugin.getSysInjector().getInstance(PolicyWarmUp.class);
+    Initializer initializer = plugin.getSysInjector().getInstance(Initializer.class);
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!initializer.isReady() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(initializer.isReady()).isTrue();
+    assertThat(warmUp.getRootsLoaded()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.access.AccessSectionInfo;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.server.project.ProjectConfig;
+import com.google.inject.Inject;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class PreviewAccessRightsIT extends LightweightPluginDaemonTest {
+  private static final String PREVIEW = "/config/server/project-group-structure~preview-access";
+
+  @Inject private GroupOperations groupOperations;
+
+  @Override
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    String defaultAccessRights =
+        "[access \"refs/heads/${project}/*\"]\n"
+            + "  read = group ${owner}\n"
+            + "  push = group unexisting group\n"
+            + "  invalidPermission = group ${owner}\n";
+    Files.write(
+        tempDataDir.newFile(ProjectConfig.PROJECT_CONFIG).toPath(), defaultAccessRights.getBytes());
+    super.setUpTestPlugin();
+  }
+
+  @Test
+  public void shouldRenderTemplateWithoutCreatingRoot() throws Exception {
+    String ownerName = name("owners");
+    AccountGroup.UUID owner = groupOperations.newGroup().name(ownerName).create();
+    String root = name("root");
+
+    RestResponse r =
+        adminRestSession.get(PREVIEW + "?root=" + root + "&owner=" + Url.encode(ownerName));
+    r.assertOK();
+    PreviewAccessRights.PreviewInfo info =
+        readContentFromJson(r, PreviewAccessRights.PreviewInfo.class);
+
+    assertThat(info.template).isEqualTo(AccessTemplates.DEFAULT_TEMPLATE);
+    assertThat(info.version).isNotEmpty();
+    AccessSectionInfo section = info.local.get("refs/heads/" + root + "/*");
+    assertThat(section).isNotNull();
+    assertThat(section.permissions.get(Permission.READ).rules).containsKey(owner.get());
+    assertThat(info.groups).containsEntry(owner.get(), ownerName);
+    assertThat(info.errors).contains("Group unexisting group not found");
+    assertThat(info.errors)
+        .contains("Invalid permission invalidPermission in refs/heads/${project}/*");
+    assertThat(projectCache.get(Project.nameKey(root)).isPresent()).isFalse();
+  }
+
+  @Test
+  public void shouldReportMissingOwner() throws Exception {
+    RestResponse r = adminRestSession.get(PREVIEW + "?root=" + name("root"));
+    r.assertOK();
+    PreviewAccessRights.PreviewInfo info =
+        readContentFromJson(r, PreviewAccessRights.PreviewInfo.class);
+    assertThat(info.errors).contains("No owner group to replace ${owner} in group ${owner}");
+  }
+
+  @Test
+  public void shouldRejectNestedProject() throws Exception {
+    adminRestSession.get(PREVIEW + "?root=" + Url.encode(name("root/a"))).assertBadRequest();
+  }
+
+  @Test
+  public void shouldOnlyBeAllowedForAdministrators() throws Exception {
+    userRestSession.get(PREVIEW + "?root=" + name("root")).assertForbidden();
+  }
+}
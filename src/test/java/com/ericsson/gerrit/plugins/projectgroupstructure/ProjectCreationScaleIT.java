@@ -0,0 +1,159 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures project creation latency and heap usage while the site grows, see {@link ScaleFixture}
+ * for the size of the site. Not part of the regular tests, run with:
+ *
+ * <pre>
+ * bazel test --test_output=streamed \
+ *   plugins/project-group-structure:project-group-structure_scale_tests
+ * </pre>
+ */
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class ProjectCreationScaleIT extends LightweightPluginDaemonTest {
+  private static final Logger log = LoggerFactory.getLogger(ProjectCreationScaleIT.class);
+
+  private static final String PLUGIN_NAME = "project-group-structure";
+
+  @Inject private ProjectOperations projectOperations;
+  @Inject private GroupOperations groupOperations;
+
+  private ScaleFixture.Size size;
+  private ScaleFixture site;
+
+  @Override
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    super.setUpTestPlugin();
+    // These access rights are mandatory configuration for this plugin as
+    // documented in config.md
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_GROUP).group(REGISTERED_USERS))
+        .update();
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_PROJECT).group(REGISTERED_USERS))
+        .update();
+
+    String delegatesName = name("delegates");
+    AccountGroup.UUID delegates =
+        groupOperations.newGroup().name(delegatesName).addMember(user.id()).create();
+    size = new ScaleFixture.Size();
+    site =
+        new ScaleFixture(
+            projectOperations,
+            groupOperations,
+            root -> delegateTo(root, GroupReference.create(delegates, delegatesName)),
+            name(""),
+            size);
+  }
+
+  @Test
+  public void shouldCreateProjectsAsSiteGrows() throws Exception {
+    log.info("Growing site to {} in {} steps", size, size.steps);
+    for (int step = 1; step <= size.steps; step++) {
+      site.growTo(size.rootsAtStep(step));
+      long[] rootLatencies = new long[size.samples];
+      long[] nestedLatencies = new long[size.samples];
+      List<Project.NameKey> delegatingRoots = site.getDelegatingRoots();
+      for (int i = 0; i < size.samples; i++) {
+        rootLatencies[i] = createRoot(name("new-root-" + step + "-" + i));
+        Project.NameKey parent = delegatingRoots.get(i % delegatingRoots.size());
+        nestedLatencies[i] = createNested(parent, "new-project-" + step + "-" + i);
+      }
+      log.info(
+          "{} projects, {} groups: root creation {}, nested creation {}, heap used {} MB",
+          site.getProjectCount(),
+          site.getGroupCount(),
+          percentiles(rootLatencies),
+          percentiles(nestedLatencies),
+          usedHeapMb());
+    }
+  }
+
+  private long createRoot(String name) throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    long start = System.nanoTime();
+    userRestSession.put("/projects/" + name, in).assertCreated();
+    return System.nanoTime() - start;
+  }
+
+  private long createNested(Project.NameKey parent, String name) throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.parent = parent.get();
+    long start = System.nanoTime();
+    userRestSession.put("/projects/" + Url.encode(parent.get() + "/" + name), in).assertCreated();
+    return System.nanoTime() - start;
+  }
+
+  private void delegateTo(Project.NameKey root, GroupReference delegates) throws Exception {
+    try (ProjectConfigUpdate cfgUpdate = updateProject(root)) {
+      cfgUpdate
+          .getConfig()
+          .updatePluginConfig(
+              PLUGIN_NAME,
+              pluginCfg ->
+                  pluginCfg.setGroupReference(
+                      ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO, delegates));
+      cfgUpdate.save();
+    }
+  }
+
+  private static String percentiles(long[] latencies) {
+    long[] sorted = latencies.clone();
+    Arrays.sort(sorted);
+    return String.format(
+        "p50=%dms p95=%dms max=%dms",
+        NANOSECONDS.toMillis(sorted[sorted.length / 2]),
+        NANOSECONDS.toMillis(sorted[(int) Math.ceil(sorted.length * 0.95) - 1]),
+        NANOSECONDS.toMillis(sorted[sorted.length - 1]));
+  }
+
+  private static long usedHeapMb() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+  }
+}
@@ -17,9 +17,12 @@ package com.ericsson.gerrit.plugins.projectgroupstructure;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
 import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+import static javax.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static javax.servlet.http.HttpServletResponse.SC_CREATED;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import com.google.common.hash.Hashing;
 import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
 import com.google.gerrit.acceptance.RestResponse;
@@ -34,10 +37,23 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.groups.GroupApi;
 import com.google.gerrit.extensions.api.projects.ProjectInput;
 import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.ConfigUpdateEntry;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.UpdateResult;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -47,6 +63,7 @@ import org.junit.Test;
 public class ProjectCreationValidatorIT extends LightweightPluginDaemonTest {
 
   @Inject private ProjectOperations projectOperations;
+  @Inject private SitePaths sitePaths;
 
   private static final String PLUGIN_NAME = "project-group-structure";
   private static final String REGEX_INCLUDING_SLASH = "[a-z_/]+";
@@ -116,6 +133,54 @@ public class ProjectCreationValidatorIT extends LightweightPluginDaemonTest {
     userRestSession.put("/projects/" + Url.encode("PROJECT1"), in).assertCreated();
   }
 
+  @Test
+  public void shouldReloadNameRegex() throws Exception {
+    Configuration configuration = plugin.getSysInjector().getInstance(Configuration.class);
+    Config newConfig = new Config();
+    newConfig.setString("plugin", PLUGIN_NAME, "nameRegex", REGEX_INCLUDING_SLASH);
+    configuration.configUpdated(new ConfigUpdatedEvent(new Config(), newConfig));
+    assertThat(configuration.get().getVersion()).isEqualTo(2);
+
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    RestResponse r = userRestSession.put("/projects/" + Url.encode("project1"), in);
+    r.assertConflict();
+    assertThat(r.getEntityContent())
+        .contains(String.format("Project name should match the regex: %s", REGEX_INCLUDING_SLASH));
+  }
+
+  @Test
+  public void shouldKeepPreviousNameRegexIfReloadedOneIsInvalid() throws Exception {
+    Configuration configuration = plugin.getSysInjector().getInstance(Configuration.class);
+    Config newConfig = new Config();
+    newConfig.setString("plugin", PLUGIN_NAME, "nameRegex", REGEX_NOT_INCLUDING_SLASH);
+    configuration.configUpdated(new ConfigUpdatedEvent(new Config(), newConfig));
+    assertThat(configuration.get().getVersion()).isEqualTo(1);
+
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    userRestSession.put("/projects/" + Url.encode("PROJECT1"), in).assertCreated();
+  }
+
+  @Test
+  public void shouldKeepPreviousSettingsIfReloadedNumberIsInvalid() throws Exception {
+    Configuration configuration = plugin.getSysInjector().getInstance(Configuration.class);
+    Config newConfig = new Config();
+    newConfig.setString("plugin", PLUGIN_NAME, "auditLogMaxFiles", "ten");
+    Multimap<UpdateResult, ConfigUpdateEntry> result =
+        configuration.configUpdated(new ConfigUpdatedEvent(new Config(), newConfig));
+    assertThat(result.keySet()).containsExactly(UpdateResult.REJECTED);
+    assertThat(configuration.get().getVersion()).isEqualTo(1);
+    assertThat(configuration.get().getAuditLogMaxFiles()).isEqualTo(10);
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.project-group-structure.auditLogMaxFileSize", value = "big")
+  public void shouldUseDefaultIfLoadedNumberIsInvalid() throws Exception {
+    Configuration configuration = plugin.getSysInjector().getInstance(Configuration.class);
+    assertThat(configuration.get().getAuditLogMaxFileSize()).isEqualTo(100 * 1024 * 1024);
+  }
+
   @Test
   public void shouldAllowAnyUsersToCreateUnderAllProjects() throws Exception {
     ProjectInput in = new ProjectInput();
@@ -563,4 +628,273 @@ public class ProjectCreationValidatorIT extends LightweightPluginDaemonTest {
 
     userRestSession.put("/projects/" + Url.encode(parent + "/childProject"), in).assertCreated();
   }
+
+  @Test
+  public void shouldBlockCreationWhenMaxChildrenIsReached() throws Exception {
+    String parent = name("parentProject");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    userRestSession.put("/projects/" + parent, in).assertCreated();
+
+    Project.NameKey parentNameKey = Project.nameKey(parent);
+    try (ProjectConfigUpdate cfgUpdate = updateProject(parentNameKey)) {
+      ProjectConfig cfg = cfgUpdate.getConfig();
+      cfg.updatePluginConfig(
+          PLUGIN_NAME, pluginCfg -> pluginCfg.setInt(ProjectCreationValidator.MAX_CHILDREN, 1));
+      cfgUpdate.save();
+    }
+
+    in = new ProjectInput();
+    in.parent = parent;
+    userRestSession.put("/projects/" + Url.encode(parent + "/childProject"), in).assertCreated();
+
+    RestResponse r = userRestSession.put("/projects/" + Url.encode(parent + "/childProject2"), in);
+    r.assertConflict();
+    assertThat(r.getEntityContent()).contains("maximum number of child projects (1)");
+
+    r = userRestSession.get("/projects/" + parent + "/" + PLUGIN_NAME + "~quota");
+    r.assertOK();
+    GetQuota.QuotaInfo quota = newGson().fromJson(r.getReader(), GetQuota.QuotaInfo.class);
+    assertThat(quota.projects).isEqualTo(1);
+    assertThat(quota.children).isEqualTo(1);
+    assertThat(quota.maxChildren).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldNotExceedMaxChildrenWithConcurrentCreations() throws Exception {
+    String parent = name("parentProject");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    userRestSession.put("/projects/" + parent, in).assertCreated();
+
+    try (ProjectConfigUpdate cfgUpdate = updateProject(Project.nameKey(parent))) {
+      ProjectConfig cfg = cfgUpdate.getConfig();
+      cfg.updatePluginConfig(
+          PLUGIN_NAME, pluginCfg -> pluginCfg.setInt(ProjectCreationValidator.MAX_CHILDREN, 2));
+      cfgUpdate.save();
+    }
+
+    ProjectInput childIn = new ProjectInput();
+    childIn.parent = parent;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<RestResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        String child = Url.encode(parent + "/child" + i);
+        responses.add(executor.submit(() -> userRestSession.put("/projects/" + child, childIn)));
+      }
+      int created = 0;
+      for (Future<RestResponse> response : responses) {
+        int status = response.get().getStatusCode();
+        assertThat(status).isAnyOf(SC_CREATED, SC_CONFLICT);
+        if (status == SC_CREATED) {
+          created++;
+        }
+      }
+      assertThat(created).isEqualTo(2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldCreateOwnerGroupOnceForConcurrentCreationsOfSameProject() throws Exception {
+    String rootProject = name("rootProject");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<RestResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        responses.add(executor.submit(() -> userRestSession.put("/projects/" + rootProject, in)));
+      }
+      int created = 0;
+      for (Future<RestResponse> response : responses) {
+        int status = response.get().getStatusCode();
+        assertThat(status).isAnyOf(SC_CREATED, SC_CONFLICT);
+        if (status == SC_CREATED) {
+          created++;
+        }
+      }
+      assertThat(created).isEqualTo(1);
+    } finally {
+      executor.shutdown();
+    }
+
+    RestResponse r = userRestSession.put("/projects/" + rootProject, in);
+    r.assertConflict();
+    assertThat(r.getEntityContent()).contains("already exists");
+
+    String ownerGroupName = rootProject + "-admins";
+    Optional<ProjectState> projectState = projectCache.get(Project.nameKey(rootProject));
+    assertThat(projectState.get().getOwners())
+        .containsExactly(
+            groupCache.get(AccountGroup.nameKey(ownerGroupName)).get().getGroupUUID());
+    String suffixedGroupName =
+        ownerGroupName
+            + "-"
+            + Hashing.sha256()
+                .hashString(ownerGroupName, Charsets.UTF_8)
+                .toString()
+                .substring(0, 7);
+    assertThat(groupCache.get(AccountGroup.nameKey(suffixedGroupName)).isPresent()).isFalse();
+  }
+
+  @Test
+  public void shouldRejectConcurrentCreationsOfSameProjectTheSameWay() throws Exception {
+    String rootProject = name("rootProject");
+    ProjectInput in = new ProjectInput();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<RestResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        responses.add(executor.submit(() -> userRestSession.put("/projects/" + rootProject, in)));
+      }
+      List<String> rejections = new ArrayList<>();
+      for (Future<RestResponse> response : responses) {
+        RestResponse r = response.get();
+        r.assertConflict();
+        rejections.add(r.getEntityContent());
+      }
+      assertThat(rejections.get(0)).contains("Regular projects are not allowed as root");
+      assertThat(new HashSet<>(rejections)).hasSize(1);
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(groupCache.get(AccountGroup.nameKey(rootProject + "-admins")).isPresent()).isFalse();
+  }
+
+  @Test
+  public void shouldBlockCreationWhenMaxDepthIsExceeded() throws Exception {
+    String parent = name("parentProject");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    userRestSession.put("/projects/" + parent, in).assertCreated();
+
+    Project.NameKey parentNameKey = Project.nameKey(parent);
+    try (ProjectConfigUpdate cfgUpdate = updateProject(parentNameKey)) {
+      ProjectConfig cfg = cfgUpdate.getConfig();
+      cfg.updatePluginConfig(
+          PLUGIN_NAME, pluginCfg -> pluginCfg.setInt(ProjectCreationValidator.MAX_DEPTH, 1));
+      cfgUpdate.save();
+    }
+
+    in = new ProjectInput();
+    in.parent = parent;
+    RestResponse r = userRestSession.put("/projects/" + Url.encode(parent + "/a/b"), in);
+    r.assertConflict();
+    assertThat(r.getEntityContent()).contains("cannot be nested deeper than 1 levels");
+    userRestSession.put("/projects/" + Url.encode(parent + "/a"), in).assertCreated();
+  }
+
+  @Test
+  @UseLocalDisk
+  @GerritConfig(name = "plugin.project-group-structure.auditLog", value = "true")
+  public void shouldAuditDecisions() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String rootProject = name("rootProject");
+    userRestSession.put("/projects/" + rootProject, in).assertCreated();
+    userRestSession.put("/projects/" + Url.encode(rootProject + "/child"), in).assertConflict();
+
+    Path auditLog = sitePaths.logs_dir.resolve(AuditLog.AUDIT_LOG_FILE);
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 50 && lines.size() < 3; i++) {
+      Thread.sleep(100);
+      if (Files.exists(auditLog)) {
+        lines = Files.readAllLines(auditLog);
+      }
+    }
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(0)).contains("\"decision\":\"grant_ownership\"");
+    assertThat(lines.get(1)).contains("\"decision\":\"accept\"");
+    assertThat(lines.get(1)).contains("\"project\":\"" + rootProject + "\"");
+    assertThat(lines.get(2)).contains("\"decision\":\"reject\"");
+    assertThat(lines.get(2)).contains("\"rule\":\"root_name_slashes\"");
+  }
+
+  @Test
+  public void shouldAllowCreationIfUserIsInAnyOfSeveralDelegatingGroups() throws Exception {
+    String parent = name("parentProject");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    adminRestSession.put("/projects/" + parent, in).assertCreated();
+
+    String otherGroup = name("groupB");
+    gApi.groups().create(otherGroup);
+    String delegatingGroup = name("groupC");
+    gApi.groups().create(delegatingGroup).addMembers(user.username());
+    delegateTo(Project.nameKey(parent), otherGroup, delegatingGroup);
+
+    in = new ProjectInput();
+    in.parent = parent;
+    userRestSession.put("/projects/" + Url.encode(parent + "/childProject"), in).assertCreated();
+  }
+
+  @Test
+  public void shouldInheritDelegatingGroupsOfParents() throws Exception {
+    String root = name("rootProject");
+    String parent = createRootAndParent(root);
+
+    String rootDelegatingGroup = name("groupB");
+    gApi.groups().create(rootDelegatingGroup).addMembers(user.username());
+    delegateTo(Project.nameKey(root), rootDelegatingGroup);
+
+    ProjectInput in = new ProjectInput();
+    in.parent = parent;
+    userRestSession.put("/projects/" + Url.encode(parent + "/childProject"), in).assertCreated();
+  }
+
+  @Test
+  public void shouldOverrideDelegatingGroupsOfParents() throws Exception {
+    String root = name("rootProject");
+    String parent = createRootAndParent(root);
+
+    String rootDelegatingGroup = name("groupB");
+    gApi.groups().create(rootDelegatingGroup).addMembers(user.username());
+    delegateTo(Project.nameKey(root), rootDelegatingGroup);
+    String parentDelegatingGroup = name("groupC");
+    gApi.groups().create(parentDelegatingGroup);
+    delegateTo(Project.nameKey(parent), parentDelegatingGroup);
+
+    ProjectInput in = new ProjectInput();
+    in.parent = parent;
+    RestResponse r = userRestSession.put("/projects/" + Url.encode(parent + "/childProject"), in);
+    r.assertConflict();
+    assertThat(r.getEntityContent()).contains("You must be owner of the parent project");
+
+    in.parent = root;
+    userRestSession.put("/projects/" + Url.encode(root + "/childProject"), in).assertCreated();
+  }
+
+  private String createRootAndParent(String root) throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    adminRestSession.put("/projects/" + root, in).assertCreated();
+    String parent = root + "/parentProject";
+    in = new ProjectInput();
+    in.parent = root;
+    in.permissionsOnly = true;
+    adminRestSession.put("/projects/" + Url.encode(parent), in).assertCreated();
+    return parent;
+  }
+
+  private void delegateTo(Project.NameKey project, String... groupNames) throws Exception {
+    try (ProjectConfigUpdate cfgUpdate = updateProject(project)) {
+      ProjectConfig cfg = cfgUpdate.getConfig();
+      List<String> values = new ArrayList<>();
+      for (String groupName : groupNames) {
+        String gId = gApi.groups().id(groupName).get().id;
+        GroupReference group =
+            cfg.resolve(GroupReference.create(AccountGroup.uuid(gId), groupName));
+        values.add(group.toConfigValue());
+      }
+      cfg.updatePluginConfig(
+          PLUGIN_NAME,
+          pluginCfg ->
+              pluginCfg.setStringList(
+                  ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO, values));
+      cfgUpdate.save();
+    }
+  }
 }
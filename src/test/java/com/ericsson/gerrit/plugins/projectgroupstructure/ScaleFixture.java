@@ -0,0 +1,143 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allow;
+
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.Project;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fills the acceptance test server with a project group structure: root projects owned by their
+ * "-admins" group, sub-projects under each root, additional "-admins" groups and roots delegating
+ * project creation.
+ *
+ * <p>The size of the site is read from system properties so that the same tests can run against a
+ * small site by default and against a production sized one, e.g. 100k projects and 50k groups with
+ * {@code -Dpgs.scale.roots=10000 -Dpgs.scale.projectsPerRoot=9 -Dpgs.scale.groupsPerRoot=5}.
+ */
+class ScaleFixture {
+  /** Delegates project creation under a root project to the users of the tests. */
+  interface Delegation {
+    void delegate(Project.NameKey root) throws Exception;
+  }
+
+  /** Size of the site, read from system properties. */
+  static class Size {
+    /** Number of root projects. */
+    final int roots = Integer.getInteger("pgs.scale.roots", 100);
+    /** Number of projects under each root, root excluded. */
+    final int projectsPerRoot = Integer.getInteger("pgs.scale.projectsPerRoot", 10);
+    /** Number of "-admins" groups for each root, the group owning the root included. */
+    final int groupsPerRoot = Integer.getInteger("pgs.scale.groupsPerRoot", 2);
+    /** One root out of this number delegates project creation. */
+    final int delegateEvery = Integer.getInteger("pgs.scale.delegateEvery", 10);
+    /** Number of steps in which the site is grown up to its full size. */
+    final int steps = Integer.getInteger("pgs.scale.steps", 4);
+    /** Number of projects created to measure each step. */
+    final int samples = Integer.getInteger("pgs.scale.samples", 20);
+
+    int rootsAtStep(int step) {
+      return Math.max(1, roots * step / steps);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d roots, %d projects per root, %d groups per root, 1 delegating root every %d",
+          roots, projectsPerRoot, groupsPerRoot, delegateEvery);
+    }
+  }
+
+  private final ProjectOperations projectOperations;
+  private final GroupOperations groupOperations;
+  private final Delegation delegation;
+  private final String prefix;
+  private final Size size;
+  private final List<Project.NameKey> roots = new ArrayList<>();
+  private final List<Project.NameKey> delegatingRoots = new ArrayList<>();
+  private int projects;
+  private int groups;
+
+  ScaleFixture(
+      ProjectOperations projectOperations,
+      GroupOperations groupOperations,
+      Delegation delegation,
+      String prefix,
+      Size size) {
+    this.projectOperations = projectOperations;
+    this.groupOperations = groupOperations;
+    this.delegation = delegation;
+    this.prefix = prefix;
+    this.size = size;
+  }
+
+  /** Add root projects, with their sub-projects and groups, until there are {@code rootCount}. */
+  void growTo(int rootCount) throws Exception {
+    for (int r = roots.size(); r < rootCount; r++) {
+      addRoot(prefix + "root" + r, r % size.delegateEvery == 0);
+    }
+  }
+
+  private void addRoot(String rootName, boolean delegating) throws Exception {
+    AccountGroup.UUID admins = groupOperations.newGroup().name(rootName + "-admins").create();
+    groups++;
+    Project.NameKey root =
+        projectOperations.newProject().name(rootName).permissionOnly(true).create();
+    projectOperations
+        .project(root)
+        .forUpdate()
+        .add(allow(Permission.OWNER).ref("refs/*").group(admins))
+        .update();
+    projects++;
+    roots.add(root);
+    if (delegating) {
+      delegation.delegate(root);
+      delegatingRoots.add(root);
+    }
+
+    for (int p = 0; p < size.projectsPerRoot; p++) {
+      String name = rootName + "/project" + p;
+      projectOperations.newProject().name(name).parent(root).create();
+      projects++;
+      if (p < size.groupsPerRoot - 1) {
+        groupOperations.newGroup().name(name + "-admins").create();
+        groups++;
+      }
+    }
+  }
+
+  List<Project.NameKey> getRoots() {
+    return Collections.unmodifiableList(roots);
+  }
+
+  List<Project.NameKey> getDelegatingRoots() {
+    return Collections.unmodifiableList(delegatingRoots);
+  }
+
+  int getProjectCount() {
+    return projects;
+  }
+
+  int getGroupCount() {
+    return groups;
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Inject;
+import java.util.List;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class SearchStructureIT extends LightweightPluginDaemonTest {
+  private static final String PLUGIN_NAME = "project-group-structure";
+  private static final String SEARCH = "/config/server/project-group-structure~search";
+
+  @Inject private GroupOperations groupOperations;
+
+  @Test
+  public void shouldFindProjectsUnderRootByDepth() throws Exception {
+    String root = createTree();
+
+    List<SearchStructure.ProjectStructureInfo> projects =
+        search("pgs-root:" + root + " pgs-depth:>=1");
+    assertThat(projects.stream().map(p -> p.name).collect(toList()))
+        .containsExactly(root + "/a", root + "/a/b", root + "/c")
+        .inOrder();
+    assertThat(projects.get(1).depth).isEqualTo(2);
+    assertThat(projects.get(1).root).isEqualTo(root);
+
+    projects = search("pgs-root:" + root + " pgs-depth:>1");
+    assertThat(projects.stream().map(p -> p.name).collect(toList()))
+        .containsExactly(root + "/a/b");
+  }
+
+  @Test
+  public void shouldFindDelegatingProjects() throws Exception {
+    String root = createTree();
+    String delegatesName = name("delegates");
+    AccountGroup.UUID delegates = groupOperations.newGroup().name(delegatesName).create();
+    try (ProjectConfigUpdate cfgUpdate = updateProject(Project.nameKey(root))) {
+      cfgUpdate
+          .getConfig()
+          .updatePluginConfig(
+              PLUGIN_NAME,
+              pluginCfg ->
+                  pluginCfg.setGroupReference(
+                      ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO,
+                      GroupReference.create(delegates, delegatesName)));
+      cfgUpdate.save();
+    }
+
+    List<SearchStructure.ProjectStructureInfo> projects =
+        search("pgs-root:" + root + " pgs-delegated:true");
+    assertThat(projects).hasSize(1);
+    assertThat(projects.get(0).name).isEqualTo(root);
+    assertThat(projects.get(0).delegated).isTrue();
+    assertThat(search("pgs-root:" + root + " pgs-delegated:false")).hasSize(3);
+  }
+
+  @Test
+  public void shouldPaginate() throws Exception {
+    String root = createTree();
+
+    List<SearchStructure.ProjectStructureInfo> projects =
+        search("pgs-root:" + root, "&n=2&S=1");
+    assertThat(projects.stream().map(p -> p.name).collect(toList()))
+        .containsExactly(root + "/a", root + "/a/b")
+        .inOrder();
+    assertThat(projects.get(1)._moreProjects).isTrue();
+  }
+
+  @Test
+  public void shouldRejectUnsupportedOperator() throws Exception {
+    adminRestSession.get(SEARCH + "?q=" + Url.encode("pgs-owner:foo")).assertBadRequest();
+    adminRestSession.get(SEARCH + "?q=" + Url.encode("pgs-depth:deep")).assertBadRequest();
+  }
+
+  private List<SearchStructure.ProjectStructureInfo> search(String query) throws Exception {
+    return search(query, "");
+  }
+
+  private List<SearchStructure.ProjectStructureInfo> search(String query, String options)
+      throws Exception {
+    RestResponse r = adminRestSession.get(SEARCH + "?q=" + Url.encode(query) + options);
+    r.assertOK();
+    return newGson()
+        .fromJson(
+            r.getReader(),
+            new TypeToken<List<SearchStructure.ProjectStructureInfo>>() {}.getType());
+  }
+
+  private String createTree() throws Exception {
+    String root = name("root");
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    adminRestSession.put("/projects/" + root, in).assertCreated();
+    for (String name : ImmutableList.of(root + "/a", root + "/a/b", root + "/c")) {
+      in = new ProjectInput();
+      in.parent = name.substring(0, name.lastIndexOf('/'));
+      adminRestSession.put("/projects/" + Url.encode(name), in).assertCreated();
+    }
+    return root;
+  }
+}
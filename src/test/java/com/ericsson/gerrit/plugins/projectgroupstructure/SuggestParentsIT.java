@@ -0,0 +1,99 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.inject.Inject;
+import org.junit.Before;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class SuggestParentsIT extends LightweightPluginDaemonTest {
+
+  @Inject private ProjectOperations projectOperations;
+
+  @Override
+  @Before
+  public void setUpTestPlugin() throws Exception {
+    super.setUpTestPlugin();
+    // These access rights are mandatory configuration for this plugin as
+    // documented in config.md
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_GROUP).group(REGISTERED_USERS))
+        .update();
+    projectOperations
+        .project(allProjects)
+        .forUpdate()
+        .add(allowCapability(GlobalCapability.CREATE_PROJECT).group(REGISTERED_USERS))
+        .update();
+  }
+
+  @Test
+  public void shouldSuggestOwnedRootsAndSiblings() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.permissionsOnly = true;
+    String ownedRoot = name("ownedRoot");
+    userRestSession.put("/projects/" + ownedRoot, in).assertCreated();
+
+    String ownerGroup = name("groupA");
+    gApi.groups().create(ownerGroup);
+    in.owners = Lists.newArrayList(ownerGroup);
+    String otherRoot = name("ownedRootOther");
+    adminRestSession.put("/projects/" + otherRoot, in).assertCreated();
+
+    in = new ProjectInput();
+    in.parent = ownedRoot;
+    String child = ownedRoot + "/child";
+    userRestSession.put("/projects/" + Url.encode(child), in).assertCreated();
+    in.parent = child;
+    userRestSession.put("/projects/" + Url.encode(child + "/deep"), in).assertCreated();
+
+    SuggestParents.SuggestionInfo suggestions = suggest(name("ownedRoot"));
+    assertThat(suggestions.parents).containsExactly(ownedRoot);
+
+    suggestions = suggest(ownedRoot + "/ch");
+    assertThat(suggestions.parents).containsExactly(ownedRoot);
+    assertThat(suggestions.siblings).containsExactly(child);
+
+    suggestions = suggest(ownedRoot + "/");
+    assertThat(suggestions.siblings).containsExactly(child);
+
+    suggestions = suggest(child + "/");
+    assertThat(suggestions.siblings).containsExactly(child + "/deep");
+  }
+
+  private SuggestParents.SuggestionInfo suggest(String query) throws Exception {
+    RestResponse r =
+        userRestSession.get(
+            "/config/server/project-group-structure~suggest-parents?q=" + Url.encode(query));
+    r.assertOK();
+    return newGson().fromJson(r.getReader(), SuggestParents.SuggestionInfo.class);
+  }
+}
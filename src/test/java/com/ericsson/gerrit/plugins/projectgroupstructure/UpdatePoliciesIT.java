@@ -0,0 +1,152 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.ericsson.gerrit.plugins.projectgroupstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+@TestPlugin(
+    name = "project-group-structure",
+    sysModule = "com.ericsson.gerrit.plugins.projectgroupstructure.Module")
+public class UpdatePoliciesIT extends LightweightPluginDaemonTest {
+  private static final String PLUGIN_NAME = "project-group-structure";
+  private static final String UPDATE = "/config/server/project-group-structure~update-policies";
+
+  @Inject private ProjectOperations projectOperations;
+  @Inject private GroupOperations groupOperations;
+  @Inject private PluginConfigFactory pluginConfigFactory;
+
+  @Test
+  public void shouldOnlyCommitToRootsNotCompliant() throws Exception {
+    Project.NameKey compliant = projectOperations.newProject().permissionOnly(true).create();
+    try (ProjectConfigUpdate cfgUpdate = updateProject(compliant)) {
+      cfgUpdate
+          .getConfig()
+          .updatePluginConfig(
+              PLUGIN_NAME,
+              pluginCfg ->
+                  pluginCfg.setBoolean(
+                      ProjectCreationValidator.DISABLE_GRANTING_PROJECT_OWNERSHIP, true));
+      cfgUpdate.save();
+    }
+    Project.NameKey other = projectOperations.newProject().permissionOnly(true).create();
+    RevCommit compliantHead = projectOperations.project(compliant).getHead(RefNames.REFS_CONFIG);
+
+    UpdatePolicies.Input in = new UpdatePolicies.Input();
+    in.roots = ImmutableList.of(compliant.get(), other.get());
+    in.set =
+        ImmutableMap.of(
+            ProjectCreationValidator.DISABLE_GRANTING_PROJECT_OWNERSHIP,
+            ImmutableList.of("true"));
+    Map<String, UpdatePolicies.ResultInfo> results = update(in);
+
+    assertThat(results.get(compliant.get()).status).isEqualTo(UpdatePolicies.COMPLIANT);
+    assertThat(results.get(other.get()).status).isEqualTo(UpdatePolicies.UPDATED);
+    assertThat(projectOperations.project(compliant).getHead(RefNames.REFS_CONFIG))
+        .isEqualTo(compliantHead);
+    assertThat(
+            pluginConfigFactory
+                .getFromProjectConfig(other, PLUGIN_NAME)
+                .getBoolean(ProjectCreationValidator.DISABLE_GRANTING_PROJECT_OWNERSHIP, false))
+        .isTrue();
+  }
+
+  @Test
+  public void shouldDelegateToGroup() throws Exception {
+    String delegatesName = name("delegates");
+    groupOperations.newGroup().name(delegatesName).create();
+    Project.NameKey root = projectOperations.newProject().permissionOnly(true).create();
+
+    UpdatePolicies.Input in = new UpdatePolicies.Input();
+    in.roots = ImmutableList.of(root.get());
+    in.set =
+        ImmutableMap.of(
+            ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO,
+            ImmutableList.of(delegatesName));
+    assertThat(update(in).get(root.get()).status).isEqualTo(UpdatePolicies.UPDATED);
+    assertThat(
+            pluginConfigFactory
+                .getFromProjectConfig(root, PLUGIN_NAME)
+                .getStringList(ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO))
+        .asList()
+        .containsExactly("group " + delegatesName);
+
+    in.set = null;
+    in.unset = ImmutableList.of(ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO);
+    assertThat(update(in).get(root.get()).status).isEqualTo(UpdatePolicies.UPDATED);
+    assertThat(
+            pluginConfigFactory
+                .getFromProjectConfig(root, PLUGIN_NAME)
+                .getStringList(ProjectCreationValidator.DELEGATE_PROJECT_CREATION_TO))
+        .isEmpty();
+  }
+
+  @Test
+  public void shouldRejectUnsupportedSetting() throws Exception {
+    Project.NameKey root = projectOperations.newProject().permissionOnly(true).create();
+    UpdatePolicies.Input in = new UpdatePolicies.Input();
+    in.roots = ImmutableList.of(root.get());
+    in.set = ImmutableMap.of("unknownSetting", ImmutableList.of("value"));
+    adminRestSession.post(UPDATE, in).assertBadRequest();
+  }
+
+  @Test
+  public void shouldRejectAllProjectsAndAllUsers() throws Exception {
+    UpdatePolicies.Input in = new UpdatePolicies.Input();
+    in.unset = ImmutableList.of(ProjectCreationValidator.MAX_PROJECTS);
+    in.roots = ImmutableList.of(allProjects.get());
+    adminRestSession.post(UPDATE, in).assertBadRequest();
+    in.roots = ImmutableList.of(allUsers.get());
+    adminRestSession.post(UPDATE, in).assertBadRequest();
+  }
+
+  @Test
+  public void shouldOnlyBeAllowedForAdministrators() throws Exception {
+    UpdatePolicies.Input in = new UpdatePolicies.Input();
+    in.roots = ImmutableList.of(project.get());
+    in.unset = ImmutableList.of(ProjectCreationValidator.MAX_PROJECTS);
+    userRestSession.post(UPDATE, in).assertForbidden();
+  }
+
+  private Map<String, UpdatePolicies.ResultInfo> update(UpdatePolicies.Input in)
+      throws Exception {
+    RestResponse r = adminRestSession.post(UPDATE, in);
+    r.assertOK();
+    Gson gson = OutputFormat.JSON_COMPACT.newGson();
+    Map<String, UpdatePolicies.ResultInfo> results = new HashMap<>();
+    for (String line : r.getEntityContent().split("\n")) {
+      UpdatePolicies.ResultInfo result = gson.fromJson(line, UpdatePolicies.ResultInfo.class);
+      results.put(result.root, result);
+    }
+    return results;
+  }
+}